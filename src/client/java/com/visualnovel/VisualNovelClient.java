@@ -1,7 +1,12 @@
 package com.visualnovel;
 
 import com.visualnovel.network.ClientNetworkHandler;
+import com.visualnovel.ui.DialogueHistory;
+import com.visualnovel.ui.PortraitAtlas;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
+import net.minecraft.resource.ResourceType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,11 +16,23 @@ import org.slf4j.LoggerFactory;
 public class VisualNovelClient implements ClientModInitializer {
 	private static final Logger LOGGER = LoggerFactory.getLogger("VisualNovel");
 	
+	// 对话回看记录
+	public static final DialogueHistory DIALOGUE_HISTORY = new DialogueHistory();
+	
+	// 立绘图集
+	public static final PortraitAtlas PORTRAIT_ATLAS = new PortraitAtlas();
+	
 	@Override
 	public void onInitializeClient() {
 		LOGGER.info("初始化视觉小说引擎客户端");
 		
 		// 注册网络处理器
 		ClientNetworkHandler.register();
+		
+		// 资源加载时拼接立绘图集
+		ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(PORTRAIT_ATLAS);
+		
+		// 离开服务器时清空回看记录
+		ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> client.execute(DIALOGUE_HISTORY::clear));
 	}
 }
\ No newline at end of file
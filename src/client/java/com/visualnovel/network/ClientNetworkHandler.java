@@ -1,8 +1,13 @@
 package com.visualnovel.network;
 
 import com.visualnovel.VisualNovel;
-import com.visualnovel.dialogue.Dialogue;
+import com.visualnovel.dialogue.RichText;
+import com.visualnovel.ui.ChoicePage;
 import com.visualnovel.ui.DialogueScreen;
+import com.visualnovel.ui.HistoryScreen;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.fabric.api.client.networking.v1.C2SPlayChannelEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
 import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
 import net.minecraft.network.PacketByteBuf;
@@ -12,6 +17,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.DataFormatException;
 
 /**
  * 客户端网络处理器
@@ -22,30 +28,84 @@ public class ClientNetworkHandler {
     // 网络包ID
     public static final Identifier DIALOGUE_PACKET_ID = new Identifier(VisualNovel.MOD_ID, "dialogue");
     public static final Identifier DIALOGUE_END_PACKET_ID = new Identifier(VisualNovel.MOD_ID, "dialogue_end");
+    public static final Identifier DIALOGUE_DICTIONARY_PACKET_ID = VisualNovel.DIALOGUE_DICTIONARY_PACKET_ID;
+    public static final Identifier SKIP_READ_PACKET_ID = VisualNovel.SKIP_READ_PACKET_ID;
+    public static final Identifier CHOICE_PAGE_PACKET_ID = VisualNovel.CHOICE_PAGE_PACKET_ID;
+    // 字典最大长度，Deflate 的窗口为 32KB
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    // 对话包中立绘数量的上限，界面只显示前几张
+    private static final int MAX_PORTRAITS = 64;
+    
+    // 服务器下发的压缩字典，在网络线程上读写
+    private static volatile byte[] dictionary;
+    private static volatile int dictionaryId;
+    // 跳过已读模式，在本次游戏中保持，连接服务器后同步给服务器
+    private static volatile boolean skipRead;
     
     /**
      * 注册网络包处理器
      */
     public static void register() {
+        // 注册压缩字典处理器
+        ClientPlayNetworking.registerGlobalReceiver(DIALOGUE_DICTIONARY_PACKET_ID, (client, handler, buf, responseSender) -> {
+            byte[] received = buf.readByteArray(MAX_DICTIONARY_SIZE);
+            dictionaryId = DialogueCompression.dictionaryId(received);
+            dictionary = received;
+        });
+        
+        // 断开连接后丢弃字典，不同服务器的字典不同
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> dictionary = null);
+        
+        // 服务器注册跳过已读频道后同步当前模式
+        C2SPlayChannelEvents.REGISTER.register((handler, sender, client, channels) -> {
+            if (skipRead && channels.contains(SKIP_READ_PACKET_ID)) {
+                client.execute(() -> setSkipRead(true));
+            }
+        });
+        
         // 注册对话包处理器
-        ClientPlayNetworking.registerGlobalReceiver(DIALOGUE_PACKET_ID, (client, handler, buf, responseSender) -> {
+        ClientPlayNetworking.registerGlobalReceiver(DIALOGUE_PACKET_ID, (client, handler, packet, responseSender) -> {
             try {
-                String text = buf.readString();
+                PacketByteBuf buf = decode(packet);
+                if (buf == null) {
+                    return;
+                }
+                List<RichText.Span> text = RichText.read(buf);
                 String title = buf.readString();
-                int choiceCount = buf.readInt();
-                List<Dialogue.Choice> choices = new ArrayList<>();
-                
+                int portraitCount = buf.readVarInt();
+                if (portraitCount < 0 || portraitCount > MAX_PORTRAITS) {
+                    throw new IllegalArgumentException("立绘数量无效: " + portraitCount);
+                }
+                List<String> portraits = new ArrayList<>(portraitCount);
+                for (int i = 0; i < portraitCount; i++) {
+                    portraits.add(buf.readString());
+                }
+                // 对话包只带第一页选项，其余的由界面按需请求
+                int choiceTotal = buf.readVarInt();
+                int choiceCount = buf.readVarInt();
+                if (choiceCount < 0 || choiceCount > ServerNetworkHandler.CHOICE_PAGE_SIZE
+                        || choiceCount > choiceTotal) {
+                    throw new IllegalArgumentException("选项数量无效: " + choiceCount);
+                }
+                int[] indices = new int[choiceCount];
+                String[] texts = new String[choiceCount];
                 for (int i = 0; i < choiceCount; i++) {
-                    String choiceText = buf.readString();
-                    String nextNodeId = buf.readString();
-                    choices.add(new Dialogue.Choice(choiceText, nextNodeId));
+                    indices[i] = i;
+                    texts[i] = buf.readString();
                 }
+                ChoicePage choices = new ChoicePage(0, "", choiceTotal, indices, texts);
 
                 client.execute(() -> {
                     if (client.currentScreen instanceof DialogueScreen) {
-                        ((DialogueScreen) client.currentScreen).updateDialogue(text, title, choices);
+                        ((DialogueScreen) client.currentScreen).updateDialogue(text, title, portraits, choices);
+                    } else if (client.currentScreen instanceof HistoryScreen) {
+                        // 正在回看时只更新对话界面，返回时显示新的内容
+                        ((HistoryScreen) client.currentScreen).getParent().updateDialogue(text, title, portraits, choices);
                     } else {
-                        client.setScreen(new DialogueScreen());
+                        // 先打开界面完成初始化，再填入第一个节点的内容
+                        DialogueScreen screen = new DialogueScreen();
+                        client.setScreen(screen);
+                        screen.updateDialogue(text, title, portraits, choices);
                     }
                 });
             } catch (Exception e) {
@@ -53,11 +113,27 @@ public class ClientNetworkHandler {
             }
         });
         
+        // 注册选项分页处理器
+        ClientPlayNetworking.registerGlobalReceiver(CHOICE_PAGE_PACKET_ID, (client, handler, buf, responseSender) -> {
+            try {
+                ChoicePage page = readChoicePage(buf);
+                client.execute(() -> {
+                    if (client.currentScreen instanceof DialogueScreen) {
+                        ((DialogueScreen) client.currentScreen).updateChoicePage(page);
+                    } else if (client.currentScreen instanceof HistoryScreen) {
+                        ((HistoryScreen) client.currentScreen).getParent().updateChoicePage(page);
+                    }
+                });
+            } catch (Exception e) {
+                LOGGER.error("处理选项分页包时出错", e);
+            }
+        });
+        
         // 注册对话结束包处理器
         ClientPlayNetworking.registerGlobalReceiver(DIALOGUE_END_PACKET_ID, (client, handler, buf, responseSender) -> {
             try {
                 client.execute(() -> {
-                    if (client.currentScreen instanceof DialogueScreen) {
+                    if (client.currentScreen instanceof DialogueScreen || client.currentScreen instanceof HistoryScreen) {
                         client.setScreen(null);
                     }
                 });
@@ -67,6 +143,56 @@ public class ClientNetworkHandler {
         });
     }
     
+    /**
+     * 读取对话包的模式字节，压缩的包体用当前字典解压；字典不匹配时返回 null
+     */
+    private static PacketByteBuf decode(PacketByteBuf packet) throws DataFormatException {
+        byte mode = packet.readByte();
+        if (mode == DialogueCompression.MODE_RAW) {
+            return packet;
+        }
+        int packetDictionaryId = packet.readInt();
+        int rawLength = packet.readVarInt();
+        byte[] compressed = packet.readByteArray();
+        byte[] current = dictionary;
+        if (current == null || packetDictionaryId != dictionaryId) {
+            LOGGER.error("收到无法解压的对话包，字典不匹配");
+            return null;
+        }
+        return new PacketByteBuf(Unpooled.wrappedBuffer(DialogueCompression.decompress(compressed, rawLength, current)));
+    }
+    
+    private static ChoicePage readChoicePage(PacketByteBuf buf) {
+        int offset = buf.readVarInt();
+        String filter = buf.readString(ServerNetworkHandler.MAX_CHOICE_FILTER_LENGTH);
+        int total = buf.readVarInt();
+        int count = buf.readVarInt();
+        if (count < 0 || count > ServerNetworkHandler.MAX_CHOICE_PAGE_SIZE) {
+            throw new IllegalArgumentException("选项数量无效: " + count);
+        }
+        int[] indices = new int[count];
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = buf.readVarInt();
+            texts[i] = buf.readString();
+        }
+        return new ChoicePage(offset, filter, total, indices, texts);
+    }
+    
+    /**
+     * 请求当前节点的一页选项：从符合筛选的第 offset 个开始取 count 个
+     */
+    public static void requestChoicePage(int offset, int count, String filter) {
+        if (!ClientPlayNetworking.canSend(CHOICE_PAGE_PACKET_ID)) {
+            return;
+        }
+        PacketByteBuf buf = PacketByteBufs.create();
+        buf.writeVarInt(offset);
+        buf.writeVarInt(count);
+        buf.writeString(filter, ServerNetworkHandler.MAX_CHOICE_FILTER_LENGTH);
+        ClientPlayNetworking.send(CHOICE_PAGE_PACKET_ID, buf);
+    }
+    
     /**
      * 发送选择到服务器
      */
@@ -85,6 +211,22 @@ public class ClientNetworkHandler {
         ClientPlayNetworking.send(DIALOGUE_PACKET_ID, buf);
     }
 
+    public static boolean isSkipRead() {
+        return skipRead;
+    }
+    
+    /**
+     * 切换跳过已读模式并通知服务器：开启后服务器直接经过已读的无选项节点
+     */
+    public static void setSkipRead(boolean enabled) {
+        skipRead = enabled;
+        if (ClientPlayNetworking.canSend(SKIP_READ_PACKET_ID)) {
+            PacketByteBuf buf = PacketByteBufs.create();
+            buf.writeBoolean(enabled);
+            ClientPlayNetworking.send(SKIP_READ_PACKET_ID, buf);
+        }
+    }
+
     /**
      * 发送对话结束请求到服务器
      */
@@ -0,0 +1,47 @@
+package com.visualnovel.ui;
+
+/**
+ * 服务器发来的一页选项：请求时的起始位置和筛选文本、符合筛选的选项总数，
+ * 以及本页各选项在节点中的序号（选择时发给服务器）和文本
+ */
+public final class ChoicePage {
+    public static final ChoicePage EMPTY = new ChoicePage(0, "", 0, new int[0], new String[0]);
+
+    private final int offset;
+    private final String filter;
+    private final int total;
+    private final int[] indices;
+    private final String[] texts;
+
+    public ChoicePage(int offset, String filter, int total, int[] indices, String[] texts) {
+        this.offset = offset;
+        this.filter = filter;
+        this.total = total;
+        this.indices = indices;
+        this.texts = texts;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int size() {
+        return texts.length;
+    }
+
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    public String getText(int i) {
+        return texts[i];
+    }
+}
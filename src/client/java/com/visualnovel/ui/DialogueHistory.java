@@ -0,0 +1,113 @@
+package com.visualnovel.ui;
+
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.text.OrderedText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 对话回看记录：保存最近显示过的对话文本和玩家的选择。
+ * 使用固定容量的环形缓冲区，写满后覆盖最旧的记录；每条记录按宽度缓存换行后的文本。
+ */
+public class DialogueHistory {
+    private static final int DEFAULT_CAPACITY = 2000;
+
+    private final Entry[] entries;
+    private int head;
+    private int size;
+    private int version;
+
+    public DialogueHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DialogueHistory(int capacity) {
+        this.entries = new Entry[capacity];
+    }
+
+    /**
+     * 记录一段显示过的对话
+     */
+    public void addLine(String title, Text text) {
+        add(new Entry(title, text != null ? text : Text.empty(), false));
+    }
+
+    /**
+     * 记录玩家选择的选项
+     */
+    public void addChoice(String text) {
+        add(new Entry(null, Text.literal("> " + text).formatted(Formatting.AQUA), true));
+    }
+
+    private void add(Entry entry) {
+        entries[(head + size) % entries.length] = entry;
+        if (size < entries.length) {
+            size++;
+        } else {
+            head = (head + 1) % entries.length;
+        }
+        version++;
+    }
+
+    public void clear() {
+        Arrays.fill(entries, null);
+        head = 0;
+        size = 0;
+        version++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 记录变化时递增，用于判断布局是否需要重建
+     */
+    public int version() {
+        return version;
+    }
+
+    /**
+     * 按时间顺序获取记录，0 为最旧的一条
+     */
+    public Entry get(int index) {
+        return entries[(head + index) % entries.length];
+    }
+
+    /**
+     * 一条回看记录
+     */
+    public static final class Entry {
+        private final String title;
+        private final Text text;
+        private final boolean choice;
+        private List<OrderedText> rows;
+        private int wrappedWidth;
+
+        private Entry(String title, Text text, boolean choice) {
+            this.title = title;
+            this.text = text;
+            this.choice = choice;
+        }
+
+        /**
+         * 获取按宽度换行后的行，宽度不变时复用缓存
+         */
+        public List<OrderedText> getRows(TextRenderer textRenderer, int width) {
+            if (rows == null || wrappedWidth != width) {
+                List<OrderedText> wrapped = new ArrayList<>();
+                if (!choice && title != null && !title.isEmpty()) {
+                    wrapped.add(Text.literal(title).formatted(Formatting.YELLOW).asOrderedText());
+                }
+                wrapped.addAll(textRenderer.wrapLines(text, width));
+                rows = wrapped;
+                wrappedWidth = width;
+            }
+            return rows;
+        }
+    }
+}
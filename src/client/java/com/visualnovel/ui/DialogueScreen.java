@@ -1,18 +1,23 @@
 package com.visualnovel.ui;
 
 import com.visualnovel.VisualNovel;
-import com.visualnovel.dialogue.Dialogue;
+import com.visualnovel.VisualNovelClient;
+import com.visualnovel.dialogue.RichText;
 import com.visualnovel.network.ClientNetworkHandler;
+import com.visualnovel.network.ServerNetworkHandler;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.font.TextRenderer;
 import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.gui.screen.Screen;
 import net.minecraft.client.gui.screen.ingame.InventoryScreen;
 import net.minecraft.client.gui.widget.ButtonWidget;
+import net.minecraft.client.gui.widget.TextFieldWidget;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityType;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.entity.passive.VillagerEntity;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.OrderedText;
 import net.minecraft.text.Text;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,21 +34,58 @@ import java.util.List;
 public class DialogueScreen extends Screen {
     private static final Logger LOGGER = LoggerFactory.getLogger(DialogueScreen.class);
     private final TextRenderer textRenderer;
-    private String dialogueText;
+    private Text dialogueText;
+    // 按 [pause] 分段的文本：第 k 段包含前 k+1 部分，显示第 k+1 段前等待 stageDelays[k+1] 刻
+    private List<Text> stageTexts;
+    private int[] stageDelays;
+    // 各段换行后的行，只在内容或宽度变化时重新计算
+    private List<List<OrderedText>> stageRows;
+    private int rowsWidth;
+    private int revealedStage;
+    private int revealTicks;
     private String dialogueTitle;
-    private final List<ButtonWidget> choiceButtons;
+    // 当前显示的一页选项；界面请求的窗口（起始位置和筛选文本），服务器返回的页与之一致时才显示
+    private ChoicePage choicePage;
+    private int choiceOffset;
+    private String choiceFilter;
+    // 不加筛选时的选项总数，超过可见数量时显示筛选框并允许滚动
+    private int choiceTotal;
+    // 窗口变化后待发送请求；同一时间只有一个请求在途，收到回复后再发送最新的窗口
+    private boolean pageDirty;
+    private boolean pageRequested;
+    // 固定数量的选项按钮，翻页和切换节点时只更新文字和位置
+    private final ButtonWidget[] choiceSlots;
+    private TextFieldWidget filterField;
     private ButtonWidget continueButton;
+    private ButtonWidget historyButton;
+    private ButtonWidget skipButton;
+    // 当前节点的立绘ID和在图集中的位置，图集重新加载后重新查找
+    private List<String> portraitIds;
+    private final PortraitAtlas.Region[] portraits;
+    private int portraitCount;
+    private int portraitGeneration = -1;
     private Entity leftEntity;
     private Entity rightEntity;
     private final MinecraftClient client;
     private static final int DIALOGUE_BOX_HEIGHT = 150;
     private static final int DIALOGUE_BOX_PADDING = 15;
     private static final int SCREEN_MARGIN = 50;
+    private static final int MAX_PORTRAITS = 8;
+    // 同时显示的选项数，即服务器对话包中第一页的大小
+    private static final int VISIBLE_CHOICES = ServerNetworkHandler.CHOICE_PAGE_SIZE;
+    private static final int CHOICE_SPACING = 25;
 
     public DialogueScreen() {
         super(Text.literal("对话"));
         this.textRenderer = MinecraftClient.getInstance().textRenderer;
-        this.choiceButtons = new ArrayList<>();
+        this.choicePage = ChoicePage.EMPTY;
+        this.choiceFilter = "";
+        this.stageTexts = List.of();
+        this.stageDelays = new int[0];
+        this.stageRows = List.of();
+        this.choiceSlots = new ButtonWidget[VISIBLE_CHOICES];
+        this.portraitIds = List.of();
+        this.portraits = new PortraitAtlas.Region[MAX_PORTRAITS];
         this.client = MinecraftClient.getInstance();
     }
 
@@ -51,21 +93,60 @@ public class DialogueScreen extends Screen {
     protected void init() {
         super.init();
         createEntities();
-        // 清除所有按钮
-        clearButtons();
+        createButtons();
+        historyButton = ButtonWidget.builder(Text.literal("记录"), b -> openHistory())
+                .dimensions(width - SCREEN_MARGIN - 55, height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN + 5, 50, 20)
+                .build();
+        addDrawableChild(historyButton);
+        skipButton = ButtonWidget.builder(skipLabel(), b -> {
+                    ClientNetworkHandler.setSkipRead(!ClientNetworkHandler.isSkipRead());
+                    b.setMessage(skipLabel());
+                })
+                .dimensions(width - SCREEN_MARGIN - 140, height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN + 5, 80, 20)
+                .build();
+        addDrawableChild(skipButton);
     }
 
-    private void clearButtons() {
-        // 清除选项按钮
-        for (ButtonWidget button : choiceButtons) {
-            remove(button);
+    private static Text skipLabel() {
+        return Text.literal(ClientNetworkHandler.isSkipRead() ? "跳过已读: 开" : "跳过已读: 关");
+    }
+
+    /**
+     * 打开对话回看界面
+     */
+    private void openHistory() {
+        client.setScreen(new HistoryScreen(this));
+    }
+
+    @Override
+    public boolean mouseScrolled(double mouseX, double mouseY, double amount) {
+        // 选项多于一屏时，在选项上滚动翻动选项
+        if (isPaged() && mouseX >= width / 2 - 100 && mouseX < width / 2 + 100
+                && mouseY < height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN) {
+            scrollChoices(amount > 0 ? -1 : 1);
+            return true;
         }
-        choiceButtons.clear();
-        
-        // 清除继续按钮
-        if (continueButton != null) {
-            remove(continueButton);
-            continueButton = null;
+        // 向上滚动打开回看
+        if (amount > 0) {
+            openHistory();
+            return true;
+        }
+        return super.mouseScrolled(mouseX, mouseY, amount);
+    }
+
+    private boolean isPaged() {
+        return choiceTotal > VISIBLE_CHOICES;
+    }
+
+    /**
+     * 移动选项窗口，实际内容等服务器返回对应的页后再更新
+     */
+    private void scrollChoices(int rows) {
+        int maxOffset = Math.max(0, choicePage.getTotal() - VISIBLE_CHOICES);
+        int offset = Math.max(0, Math.min(maxOffset, choiceOffset + rows));
+        if (offset != choiceOffset) {
+            choiceOffset = offset;
+            pageDirty = true;
         }
     }
 
@@ -96,24 +177,31 @@ public class DialogueScreen extends Screen {
         renderBackground(context);
         super.render(context, mouseX, mouseY, delta);
 
-        // 渲染实体模型
-        int leftEntityX = width / 4;
-        int rightEntityX = width * 3 / 4;
-        int entityY = height / 2; // 将实体放在屏幕中间
-        int entitySize = 100;
+        int dialogueBoxY = height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN;
+        resolvePortraits();
+        if (portraitCount > 0) {
+            // 节点指定了立绘时，所有立绘在一次绘制中完成，底边贴着对话框
+            VisualNovelClient.PORTRAIT_ATLAS.draw(context, portraits, portraitCount, width, dialogueBoxY,
+                    Math.min(dialogueBoxY, height / 2));
+        } else {
+            // 渲染实体模型
+            int leftEntityX = width / 4;
+            int rightEntityX = width * 3 / 4;
+            int entityY = height / 2; // 将实体放在屏幕中间
+            int entitySize = 100;
 
-        // 渲染左侧实体（玩家）
-        if (leftEntity instanceof LivingEntity) {
-            InventoryScreen.drawEntity(context, leftEntityX, entityY, entitySize, 0, 0, (LivingEntity) leftEntity);
-        }
+            // 渲染左侧实体（玩家）
+            if (leftEntity instanceof LivingEntity) {
+                InventoryScreen.drawEntity(context, leftEntityX, entityY, entitySize, 0, 0, (LivingEntity) leftEntity);
+            }
 
-        // 渲染右侧实体（村民）
-        if (rightEntity instanceof LivingEntity) {
-            InventoryScreen.drawEntity(context, rightEntityX, entityY, entitySize, 0, 0, (LivingEntity) rightEntity);
+            // 渲染右侧实体（村民）
+            if (rightEntity instanceof LivingEntity) {
+                InventoryScreen.drawEntity(context, rightEntityX, entityY, entitySize, 0, 0, (LivingEntity) rightEntity);
+            }
         }
 
         // 渲染对话框背景
-        int dialogueBoxY = height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN;
         context.fill(SCREEN_MARGIN, dialogueBoxY, width - SCREEN_MARGIN, height - SCREEN_MARGIN, 0x80000000); // 半透明黑色背景
 
         // 渲染对话标题
@@ -124,11 +212,12 @@ public class DialogueScreen extends Screen {
                     0xFFFFFF);
         }
 
-        // 渲染对话文本
-        if (dialogueText != null) {
+        // 渲染对话文本，使用缓存的换行结果
+        if (!stageTexts.isEmpty()) {
+            List<OrderedText> rows = rows(revealedStage);
             int textY = dialogueBoxY + DIALOGUE_BOX_PADDING + 20;
-            for (String line : dialogueText.split("\n")) {
-                context.drawTextWithShadow(textRenderer, line,
+            for (int i = 0; i < rows.size(); i++) {
+                context.drawTextWithShadow(textRenderer, rows.get(i),
                         SCREEN_MARGIN + DIALOGUE_BOX_PADDING,
                         textY,
                         0xFFFFFF);
@@ -136,14 +225,41 @@ public class DialogueScreen extends Screen {
             }
         }
 
-        // 渲染选项按钮或继续按钮（互斥显示）
-        if (!choiceButtons.isEmpty()) {
-            for (ButtonWidget button : choiceButtons) {
-                button.render(context, mouseX, mouseY, delta);
+        // 渲染选项按钮或继续按钮（互斥显示，隐藏的按钮不会绘制）
+        for (ButtonWidget slot : choiceSlots) {
+            if (slot != null) {
+                slot.render(context, mouseX, mouseY, delta);
             }
-        } else if (continueButton != null) {
+        }
+        if (continueButton != null) {
             continueButton.render(context, mouseX, mouseY, delta);
         }
+
+        // 选项多于一屏时显示当前窗口的位置
+        if (isPaged() && choicePage.size() > 0) {
+            int first = choicePage.getOffset() + 1;
+            int last = choicePage.getOffset() + choicePage.size();
+            context.drawTextWithShadow(textRenderer, first + "-" + last + " / " + choicePage.getTotal(),
+                    width / 2 + 105, height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN - 24, 0xAAAAAA);
+        }
+    }
+
+    /**
+     * 在图集中查找当前节点的立绘，只在节点变化或图集重新加载后进行；图集中没有的立绘跳过
+     */
+    private void resolvePortraits() {
+        PortraitAtlas atlas = VisualNovelClient.PORTRAIT_ATLAS;
+        if (portraitGeneration == atlas.getGeneration()) {
+            return;
+        }
+        portraitCount = 0;
+        for (String id : portraitIds) {
+            PortraitAtlas.Region region = atlas.find(id);
+            if (region != null && portraitCount < portraits.length) {
+                portraits[portraitCount++] = region;
+            }
+        }
+        portraitGeneration = atlas.getGeneration();
     }
 
     private void createEntities() {
@@ -170,34 +286,183 @@ public class DialogueScreen extends Screen {
         }
     }
 
-    public void updateDialogue(String text, String title, List<Dialogue.Choice> choices) {
-        this.dialogueText = text;
+    public void updateDialogue(List<RichText.Span> spans, String title, List<String> portraitIds,
+            ChoicePage choices) {
+        setText(spans);
         this.dialogueTitle = title;
-        
-        // 清除所有旧的按钮
-        clearButtons();
-        
-        // 如果有选项，创建选项按钮
-        if (choices != null && !choices.isEmpty()) {
-            int buttonY = height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN - 30;
-            int buttonSpacing = 25; // 按钮之间的间距
-            
-            for (int i = 0; i < choices.size(); i++) {
-                final int choiceIndex = i;
-                Dialogue.Choice choice = choices.get(i);
-                ButtonWidget button = ButtonWidget.builder(Text.literal(choice.getText()), b -> {
-                    ClientNetworkHandler.sendChoiceSelection(choiceIndex);
-                }).dimensions(width / 2 - 100, buttonY - (choices.size() - 1 - i) * buttonSpacing, 200, 20).build();
-                choiceButtons.add(button);
-                addDrawableChild(button);
+        this.portraitIds = portraitIds != null ? portraitIds : List.of();
+        this.portraitGeneration = -1;
+        this.choicePage = choices != null ? choices : ChoicePage.EMPTY;
+        this.choiceTotal = choicePage.getTotal();
+        this.choiceOffset = 0;
+        this.choiceFilter = "";
+        this.pageDirty = false;
+        this.pageRequested = false;
+        if (filterField != null) {
+            filterField.setText("");
+        }
+        VisualNovelClient.DIALOGUE_HISTORY.addLine(title, dialogueText);
+        refreshButtons();
+    }
+
+    /**
+     * 收到服务器返回的一页选项；窗口已经变化的过时页直接丢弃
+     */
+    public void updateChoicePage(ChoicePage page) {
+        pageRequested = false;
+        if (page.getOffset() == choiceOffset && page.getFilter().equals(choiceFilter)) {
+            choicePage = page;
+            refreshButtons();
+        }
+    }
+
+    /**
+     * 把文本片段组装为文本组件，每个节点只做一次
+     */
+    private void setText(List<RichText.Span> spans) {
+        List<Text> stages = new ArrayList<>();
+        List<Integer> delays = new ArrayList<>();
+        MutableText current = Text.empty();
+        int pendingDelay = 0;
+        boolean empty = true;
+        for (RichText.Span span : spans) {
+            if (span.getPauseTicks() > 0 && !empty) {
+                stages.add(current.copy());
+                delays.add(pendingDelay);
+                pendingDelay = 0;
             }
-        } else {
-            // 如果没有选项，创建继续按钮
-            int buttonY = height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN - 30;
-            continueButton = ButtonWidget.builder(Text.literal("继续"), b -> {
-                ClientNetworkHandler.sendDialogueContinue();
-            }).dimensions(width / 2 - 100, buttonY, 200, 20).build();
-            addDrawableChild(continueButton);
+            pendingDelay += span.getPauseTicks();
+            current.append(span.toText());
+            empty = false;
+        }
+        stages.add(current);
+        delays.add(pendingDelay);
+
+        this.dialogueText = current;
+        this.stageTexts = stages;
+        this.stageDelays = new int[delays.size()];
+        for (int i = 0; i < stageDelays.length; i++) {
+            stageDelays[i] = delays.get(i);
+        }
+        this.stageRows = new ArrayList<>(stages.size());
+        for (int i = 0; i < stages.size(); i++) {
+            stageRows.add(null);
+        }
+        this.revealedStage = 0;
+        this.revealTicks = stageDelays.length > 1 ? stageDelays[1] : 0;
+    }
+
+    /**
+     * 获取某一段换行后的行，宽度变化时重新换行
+     */
+    private List<OrderedText> rows(int stage) {
+        int textWidth = width - SCREEN_MARGIN * 2 - DIALOGUE_BOX_PADDING * 2;
+        if (rowsWidth != textWidth) {
+            for (int i = 0; i < stageRows.size(); i++) {
+                stageRows.set(i, null);
+            }
+            rowsWidth = textWidth;
+        }
+        List<OrderedText> rows = stageRows.get(stage);
+        if (rows == null) {
+            rows = textRenderer.wrapLines(stageTexts.get(stage), textWidth);
+            stageRows.set(stage, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * 文本是否已经全部显示
+     */
+    private boolean isFullyRevealed() {
+        return revealedStage >= stageTexts.size() - 1;
+    }
+
+    @Override
+    public void tick() {
+        super.tick();
+        // [pause] 之后的文本按停顿时间依次显示
+        if (!isFullyRevealed() && --revealTicks <= 0) {
+            revealedStage++;
+            revealTicks = revealedStage + 1 < stageDelays.length ? stageDelays[revealedStage + 1] : 0;
+        }
+        if (filterField != null) {
+            filterField.tick();
+        }
+        // 滚动和输入筛选文本时每刻最多发送一次请求
+        if (pageDirty && !pageRequested) {
+            ClientNetworkHandler.requestChoicePage(choiceOffset, VISIBLE_CHOICES, choiceFilter);
+            pageDirty = false;
+            pageRequested = true;
+        }
+    }
+
+    /**
+     * 创建固定的选项按钮、筛选框和继续按钮，界面尺寸变化或从回看界面返回时重新创建
+     */
+    private void createButtons() {
+        int buttonY = height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN - 30;
+        for (int i = 0; i < choiceSlots.length; i++) {
+            final int slot = i;
+            choiceSlots[i] = ButtonWidget.builder(Text.empty(), b -> selectChoice(slot))
+                    .dimensions(width / 2 - 100, buttonY, 200, 20).build();
+            addDrawableChild(choiceSlots[i]);
+        }
+
+        filterField = new TextFieldWidget(textRenderer, width / 2 - 100,
+                buttonY - (VISIBLE_CHOICES - 1) * CHOICE_SPACING - 22, 200, 16, Text.literal("筛选选项"));
+        filterField.setMaxLength(ServerNetworkHandler.MAX_CHOICE_FILTER_LENGTH);
+        filterField.setPlaceholder(Text.literal("筛选选项"));
+        filterField.setText(choiceFilter);
+        filterField.setChangedListener(text -> {
+            if (!text.equals(choiceFilter)) {
+                choiceFilter = text;
+                choiceOffset = 0;
+                pageDirty = true;
+            }
+        });
+        addDrawableChild(filterField);
+
+        continueButton = ButtonWidget.builder(Text.literal("继续"), b -> {
+            // 文本还在逐段显示时先显示全部
+            if (!isFullyRevealed()) {
+                revealedStage = stageTexts.size() - 1;
+                return;
+            }
+            ClientNetworkHandler.sendDialogueContinue();
+        }).dimensions(width / 2 - 100, buttonY, 200, 20).build();
+        addDrawableChild(continueButton);
+
+        refreshButtons();
+    }
+
+    /**
+     * 按当前页更新按钮：有选项时显示本页的选项，否则显示继续按钮
+     */
+    private void refreshButtons() {
+        if (continueButton == null) {
+            return;
+        }
+        boolean hasChoices = choiceTotal > 0;
+        continueButton.visible = dialogueText != null && !hasChoices;
+        filterField.visible = isPaged();
+
+        int buttonY = height - DIALOGUE_BOX_HEIGHT - SCREEN_MARGIN - 30;
+        int count = Math.min(choicePage.size(), choiceSlots.length);
+        for (int i = 0; i < choiceSlots.length; i++) {
+            ButtonWidget slot = choiceSlots[i];
+            slot.visible = hasChoices && i < count;
+            if (slot.visible) {
+                slot.setMessage(Text.literal(choicePage.getText(i)));
+                slot.setY(buttonY - (count - 1 - i) * CHOICE_SPACING);
+            }
+        }
+    }
+
+    private void selectChoice(int slot) {
+        if (slot < choicePage.size()) {
+            VisualNovelClient.DIALOGUE_HISTORY.addChoice(choicePage.getText(slot));
+            ClientNetworkHandler.sendChoiceSelection(choicePage.getIndex(slot));
         }
     }
-}
\ No newline at end of file
+}
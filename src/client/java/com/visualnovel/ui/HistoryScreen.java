@@ -0,0 +1,195 @@
+package com.visualnovel.ui;
+
+import com.visualnovel.VisualNovelClient;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.gui.screen.Screen;
+import net.minecraft.text.OrderedText;
+import net.minecraft.text.Text;
+import org.lwjgl.glfw.GLFW;
+
+import java.util.List;
+
+/**
+ * 对话回看界面。
+ * 按行滚动，只绘制可见的行：各条记录的起始行号保存为前缀和数组，记录或宽度变化时才重建，
+ * 绘制时二分查找第一条可见记录，换行后的文本来自记录自身的缓存，每帧不分配对象。
+ */
+public class HistoryScreen extends Screen {
+    private static final int MARGIN = 40;
+    private static final int PADDING = 10;
+    private static final int ROW_HEIGHT = 11;
+    private static final int ENTRY_GAP = 4;
+    private static final int SCROLL_ROWS = 3;
+    private static final int SCROLLBAR_WIDTH = 4;
+
+    private final DialogueScreen parent;
+    private final DialogueHistory history;
+    // entryTop[i] 为第 i 条记录的起始像素位置，entryTop[size] 为内容总高度
+    private int[] entryTop = new int[0];
+    private int layoutVersion = -1;
+    private int layoutWidth = -1;
+    private int scroll;
+    private boolean stickToBottom = true;
+
+    public HistoryScreen(DialogueScreen parent) {
+        super(Text.literal("对话记录"));
+        this.parent = parent;
+        this.history = VisualNovelClient.DIALOGUE_HISTORY;
+    }
+
+    /**
+     * 获取打开回看前的对话界面
+     */
+    public DialogueScreen getParent() {
+        return parent;
+    }
+
+    @Override
+    public boolean shouldPause() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        MinecraftClient.getInstance().setScreen(parent);
+    }
+
+    private int textWidth() {
+        return width - MARGIN * 2 - PADDING * 2 - SCROLLBAR_WIDTH;
+    }
+
+    private int viewportHeight() {
+        return height - MARGIN * 2 - PADDING * 2;
+    }
+
+    /**
+     * 记录或宽度变化时重新计算每条记录的位置
+     */
+    private void layout() {
+        int textWidth = textWidth();
+        if (layoutVersion == history.version() && layoutWidth == textWidth) {
+            return;
+        }
+        int size = history.size();
+        if (entryTop.length != size + 1) {
+            entryTop = new int[size + 1];
+        }
+        int top = 0;
+        for (int i = 0; i < size; i++) {
+            entryTop[i] = top;
+            top += history.get(i).getRows(textRenderer, textWidth).size() * ROW_HEIGHT + ENTRY_GAP;
+        }
+        entryTop[size] = top;
+        layoutVersion = history.version();
+        layoutWidth = textWidth;
+        if (stickToBottom) {
+            scroll = maxScroll();
+        } else {
+            scroll = Math.min(scroll, maxScroll());
+        }
+    }
+
+    private int maxScroll() {
+        return Math.max(0, entryTop[entryTop.length - 1] - viewportHeight());
+    }
+
+    /**
+     * 二分查找包含指定位置的记录
+     */
+    private int entryAt(int y) {
+        int low = 0;
+        int high = history.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (entryTop[mid] <= y) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void render(DrawContext context, int mouseX, int mouseY, float delta) {
+        renderBackground(context);
+        layout();
+
+        int left = MARGIN;
+        int top = MARGIN;
+        int right = width - MARGIN;
+        int bottom = height - MARGIN;
+        context.fill(left, top, right, bottom, 0xC0000000);
+        context.drawCenteredTextWithShadow(textRenderer, title, width / 2, top - 12, 0xFFFFFF);
+
+        int viewportTop = top + PADDING;
+        int viewportHeight = viewportHeight();
+        int textWidth = textWidth();
+        int textX = left + PADDING;
+
+        if (history.size() > 0) {
+            context.enableScissor(left, viewportTop, right, viewportTop + viewportHeight);
+            for (int i = entryAt(scroll); i < history.size() && entryTop[i] < scroll + viewportHeight; i++) {
+                List<OrderedText> rows = history.get(i).getRows(textRenderer, textWidth);
+                int y = viewportTop + entryTop[i] - scroll;
+                for (int row = 0; row < rows.size(); row++, y += ROW_HEIGHT) {
+                    if (y + ROW_HEIGHT > viewportTop && y < viewportTop + viewportHeight) {
+                        context.drawTextWithShadow(textRenderer, rows.get(row), textX, y, 0xFFFFFF);
+                    }
+                }
+            }
+            context.disableScissor();
+        }
+
+        // 滚动条
+        int contentHeight = entryTop[entryTop.length - 1];
+        if (contentHeight > viewportHeight) {
+            int barX = right - PADDING / 2 - SCROLLBAR_WIDTH;
+            int thumbHeight = Math.max(16, viewportHeight * viewportHeight / contentHeight);
+            int thumbY = viewportTop + (int) ((long) (viewportHeight - thumbHeight) * scroll / maxScroll());
+            context.fill(barX, viewportTop, barX + SCROLLBAR_WIDTH, viewportTop + viewportHeight, 0x40FFFFFF);
+            context.fill(barX, thumbY, barX + SCROLLBAR_WIDTH, thumbY + thumbHeight, 0xC0FFFFFF);
+        }
+
+        super.render(context, mouseX, mouseY, delta);
+    }
+
+    private void scrollTo(int target) {
+        layout();
+        scroll = Math.max(0, Math.min(target, maxScroll()));
+        stickToBottom = scroll >= maxScroll();
+    }
+
+    @Override
+    public boolean mouseScrolled(double mouseX, double mouseY, double amount) {
+        scrollTo(scroll - (int) Math.signum(amount) * SCROLL_ROWS * ROW_HEIGHT);
+        return true;
+    }
+
+    @Override
+    public boolean keyPressed(int keyCode, int scanCode, int modifiers) {
+        switch (keyCode) {
+            case GLFW.GLFW_KEY_UP:
+                scrollTo(scroll - ROW_HEIGHT);
+                return true;
+            case GLFW.GLFW_KEY_DOWN:
+                scrollTo(scroll + ROW_HEIGHT);
+                return true;
+            case GLFW.GLFW_KEY_PAGE_UP:
+                scrollTo(scroll - viewportHeight());
+                return true;
+            case GLFW.GLFW_KEY_PAGE_DOWN:
+                scrollTo(scroll + viewportHeight());
+                return true;
+            case GLFW.GLFW_KEY_HOME:
+                scrollTo(0);
+                return true;
+            case GLFW.GLFW_KEY_END:
+                scrollTo(Integer.MAX_VALUE);
+                return true;
+            default:
+                return super.keyPressed(keyCode, scanCode, modifiers);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.visualnovel.ui;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.visualnovel.VisualNovel;
+import net.fabricmc.fabric.api.resource.SimpleResourceReloadListener;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.BufferRenderer;
+import net.minecraft.client.render.GameRenderer;
+import net.minecraft.client.render.Tessellator;
+import net.minecraft.client.render.VertexFormat;
+import net.minecraft.client.render.VertexFormats;
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.client.texture.NativeImageBackedTexture;
+import net.minecraft.resource.Resource;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.profiler.Profiler;
+import org.joml.Matrix4f;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * 立绘图集：资源加载时把 assets/&lt;命名空间&gt;/portraits/ 下的所有 PNG 拼接为一张纹理，
+ * 绘制时绑定一次纹理，所有立绘在同一批四边形中提交。
+ * 立绘ID为相对路径（不含扩展名），例如 portraits/guide/happy.png 为 guide/happy；
+ * 其他命名空间的立绘ID带命名空间前缀。
+ */
+public class PortraitAtlas implements SimpleResourceReloadListener<PortraitAtlas.Stitched> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PortraitAtlas.class);
+    private static final Identifier ID = new Identifier(VisualNovel.MOD_ID, "portraits");
+    private static final Identifier TEXTURE_ID = new Identifier(VisualNovel.MOD_ID, "textures/atlas/portraits.png");
+    private static final String DIRECTORY = "portraits";
+    private static final String EXTENSION = ".png";
+    // 相邻立绘之间留出的像素，避免缩放采样时串色
+    private static final int PADDING = 1;
+
+    private Map<String, Region> regions = Map.of();
+    private int generation;
+
+    @Override
+    public Identifier getFabricId() {
+        return ID;
+    }
+
+    /**
+     * 查找立绘在图集中的位置，不存在时返回 null
+     */
+    public Region find(String portraitId) {
+        return portraitId != null ? regions.get(portraitId) : null;
+    }
+
+    /**
+     * 图集每次重建后递增，持有 Region 的界面据此判断是否需要重新查找
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public CompletableFuture<Stitched> load(ResourceManager manager, Profiler profiler, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<Identifier, Resource> resources = manager.findResources(DIRECTORY,
+                    id -> id.getPath().endsWith(EXTENSION));
+            List<Sprite> sprites = new ArrayList<>();
+            for (Map.Entry<Identifier, Resource> entry : resources.entrySet()) {
+                Identifier resourceId = entry.getKey();
+                String path = resourceId.getPath();
+                String relative = path.substring(DIRECTORY.length() + 1, path.length() - EXTENSION.length());
+                String portraitId = resourceId.getNamespace().equals(VisualNovel.MOD_ID)
+                        ? relative : resourceId.getNamespace() + ":" + relative;
+                try (InputStream in = entry.getValue().getInputStream()) {
+                    sprites.add(new Sprite(portraitId, NativeImage.read(in)));
+                } catch (IOException e) {
+                    LOGGER.error("加载立绘失败: " + resourceId, e);
+                }
+            }
+            return stitch(sprites, RenderSystem.maxSupportedTextureSize());
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> apply(Stitched stitched, ResourceManager manager, Profiler profiler,
+            Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            if (stitched.image != null) {
+                MinecraftClient.getInstance().getTextureManager()
+                        .registerTexture(TEXTURE_ID, new NativeImageBackedTexture(stitched.image));
+            } else {
+                MinecraftClient.getInstance().getTextureManager().destroyTexture(TEXTURE_ID);
+            }
+            regions = stitched.regions;
+            generation++;
+            if (!regions.isEmpty()) {
+                LOGGER.info("已加载 {} 张立绘，图集大小 {}x{}", regions.size(), stitched.image.getWidth(),
+                        stitched.image.getHeight());
+            }
+        }, executor);
+    }
+
+    /**
+     * 按高度从高到低逐行排列立绘，放不下时加宽图集重试
+     */
+    private static Stitched stitch(List<Sprite> sprites, int maxSize) {
+        if (sprites.isEmpty()) {
+            return new Stitched(null, Map.of());
+        }
+        sprites.sort((a, b) -> Integer.compare(b.image.getHeight(), a.image.getHeight()));
+
+        long area = 0;
+        int widest = 0;
+        for (Sprite sprite : sprites) {
+            area += (long) (sprite.image.getWidth() + PADDING) * (sprite.image.getHeight() + PADDING);
+            widest = Math.max(widest, sprite.image.getWidth() + PADDING);
+        }
+        int width = Math.max(nextPowerOfTwo(widest), nextPowerOfTwo((int) Math.ceil(Math.sqrt(area))));
+
+        while (width <= maxSize) {
+            int x = 0;
+            int y = 0;
+            int rowHeight = 0;
+            for (Sprite sprite : sprites) {
+                int spriteWidth = sprite.image.getWidth() + PADDING;
+                if (x + spriteWidth > width) {
+                    x = 0;
+                    y += rowHeight;
+                    rowHeight = 0;
+                }
+                sprite.x = x;
+                sprite.y = y;
+                x += spriteWidth;
+                rowHeight = Math.max(rowHeight, sprite.image.getHeight() + PADDING);
+            }
+            int height = nextPowerOfTwo(y + rowHeight);
+            if (height <= maxSize) {
+                return copy(sprites, width, height);
+            }
+            width *= 2;
+        }
+
+        LOGGER.error("立绘总尺寸超出显卡支持的最大纹理 {}，将使用实体模型显示", maxSize);
+        for (Sprite sprite : sprites) {
+            sprite.image.close();
+        }
+        return new Stitched(null, Map.of());
+    }
+
+    /**
+     * 把各立绘复制到图集中；无论是否成功都释放各立绘的图像，失败时同时释放图集
+     */
+    private static Stitched copy(List<Sprite> sprites, int width, int height) {
+        NativeImage atlas = new NativeImage(NativeImage.Format.RGBA, width, height, true);
+        try {
+            Map<String, Region> regions = new HashMap<>();
+            for (Sprite sprite : sprites) {
+                NativeImage image = sprite.image;
+                image.copyRect(atlas, 0, 0, sprite.x, sprite.y, image.getWidth(), image.getHeight(), false, false);
+                regions.put(sprite.id, new Region(image.getWidth(), image.getHeight(),
+                        (float) sprite.x / width, (float) sprite.y / height,
+                        (float) (sprite.x + image.getWidth()) / width, (float) (sprite.y + image.getHeight()) / height));
+            }
+            return new Stitched(atlas, Map.copyOf(regions));
+        } catch (RuntimeException e) {
+            atlas.close();
+            throw e;
+        } finally {
+            for (Sprite sprite : sprites) {
+                sprite.image.close();
+            }
+        }
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * 在一次绘制调用中绘制多张立绘，底边对齐 bottom，水平均匀分布，高度为 portraitHeight
+     */
+    public void draw(DrawContext context, Region[] portraits, int count, int screenWidth, int bottom,
+            int portraitHeight) {
+        if (count == 0) {
+            return;
+        }
+        RenderSystem.setShader(GameRenderer::getPositionTexProgram);
+        RenderSystem.setShaderTexture(0, TEXTURE_ID);
+        RenderSystem.enableBlend();
+        Matrix4f matrix = context.getMatrices().peek().getPositionMatrix();
+        BufferBuilder buffer = Tessellator.getInstance().getBuffer();
+        buffer.begin(VertexFormat.DrawMode.QUADS, VertexFormats.POSITION_TEXTURE);
+        for (int i = 0; i < count; i++) {
+            Region region = portraits[i];
+            float drawWidth = (float) portraitHeight * region.width / region.height;
+            float centerX = (float) screenWidth * (i + 1) / (count + 1);
+            float x1 = centerX - drawWidth / 2;
+            float x2 = centerX + drawWidth / 2;
+            float y1 = bottom - portraitHeight;
+            float y2 = bottom;
+            buffer.vertex(matrix, x1, y1, 0).texture(region.u1, region.v1).next();
+            buffer.vertex(matrix, x1, y2, 0).texture(region.u1, region.v2).next();
+            buffer.vertex(matrix, x2, y2, 0).texture(region.u2, region.v2).next();
+            buffer.vertex(matrix, x2, y1, 0).texture(region.u2, region.v1).next();
+        }
+        BufferRenderer.drawWithGlobalProgram(buffer.end());
+        RenderSystem.disableBlend();
+    }
+
+    /**
+     * 立绘在图集中的位置
+     */
+    public static final class Region {
+        private final int width;
+        private final int height;
+        private final float u1;
+        private final float v1;
+        private final float u2;
+        private final float v2;
+
+        private Region(int width, int height, float u1, float v1, float u2, float v2) {
+            this.width = width;
+            this.height = height;
+            this.u1 = u1;
+            this.v1 = v1;
+            this.u2 = u2;
+            this.v2 = v2;
+        }
+    }
+
+    private static final class Sprite {
+        private final String id;
+        private final NativeImage image;
+        private int x;
+        private int y;
+
+        private Sprite(String id, NativeImage image) {
+            this.id = id;
+            this.image = image;
+        }
+    }
+
+    /**
+     * 加载阶段的结果：拼接好的图集（没有立绘时为 null）和各立绘的位置
+     */
+    public static final class Stitched {
+        private final NativeImage image;
+        private final Map<String, Region> regions;
+
+        private Stitched(NativeImage image, Map<String, Region> regions) {
+            this.image = image;
+            this.regions = regions;
+        }
+    }
+}
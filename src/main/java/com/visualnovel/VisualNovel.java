@@ -1,9 +1,21 @@
 package com.visualnovel;
 
+import com.visualnovel.command.VisualNovelCommands;
+import com.visualnovel.config.DialogueBindings;
 import com.visualnovel.config.DialogueManager;
+import com.visualnovel.config.DialogueReloadListener;
+import com.visualnovel.config.PlayerVariables;
 import com.visualnovel.event.InteractionEvents;
 import com.visualnovel.network.ServerNetworkHandler;
+import com.visualnovel.replay.DialogueReplayer;
+import com.visualnovel.trigger.ProximityTriggers;
+import com.visualnovel.trigger.TriggerIndex;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.entity.event.v1.ServerPlayerEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
+import net.minecraft.resource.ResourceType;
 import net.minecraft.util.Identifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,22 +31,54 @@ public class VisualNovel implements ModInitializer {
 	public static final Identifier DIALOGUE_PACKET_ID = new Identifier(MOD_ID, "dialogue");
 	public static final Identifier DIALOGUE_END_PACKET_ID = new Identifier(MOD_ID, "dialogue_end");
 	public static final Identifier SOUND_PACKET_ID = new Identifier(MOD_ID, "sound");
+	public static final Identifier DIALOGUE_DICTIONARY_PACKET_ID = new Identifier(MOD_ID, "dialogue_dictionary");
+	public static final Identifier SKIP_READ_PACKET_ID = new Identifier(MOD_ID, "skip_read");
+	public static final Identifier CHOICE_PAGE_PACKET_ID = new Identifier(MOD_ID, "choice_page");
 	
 	// 对话管理器
 	public static final DialogueManager DIALOGUE_MANAGER = new DialogueManager();
 	
+	// 实体对话绑定
+	public static final DialogueBindings DIALOGUE_BINDINGS = new DialogueBindings();
+	
+	// 区域触发器索引
+	public static final TriggerIndex TRIGGER_INDEX = new TriggerIndex();
+	
 	@Override
 	public void onInitialize() {
 		LOGGER.info("正在初始化视觉小说引擎...");
 		
 		// 加载对话配置
 		DIALOGUE_MANAGER.loadDialogues();
+		DIALOGUE_BINDINGS.load();
+		ResourceManagerHelper.get(ResourceType.SERVER_DATA)
+				.registerReloadListener(new DialogueReloadListener(DIALOGUE_MANAGER.getLibrary()));
+		TRIGGER_INDEX.load();
 		
 		// 注册网络包处理器
 		ServerNetworkHandler.register();
 		
+		// 对话快照存储随服务器启动和停止
+		ServerLifecycleEvents.SERVER_STARTED.register(DIALOGUE_MANAGER::onServerStarted);
+		ServerLifecycleEvents.SERVER_STOPPED.register(server -> DIALOGUE_MANAGER.onServerStopped());
+		
+		// 玩家重生时保留对话变量
+		ServerPlayerEvents.COPY_FROM.register((oldPlayer, newPlayer, alive) ->
+				PlayerVariables.of(newPlayer).copyFrom(PlayerVariables.of(oldPlayer)));
+		
+		// 推进让出到下一刻的对话求值并执行节点动作
+		ServerTickEvents.END_SERVER_TICK.register(DIALOGUE_MANAGER::tick);
+		
+		// 推进正在进行的对话回放
+		ServerTickEvents.END_SERVER_TICK.register(DialogueReplayer::tickAll);
+		ServerLifecycleEvents.SERVER_STOPPING.register(server -> DialogueReplayer.cancelAll());
+		
 		// 注册交互事件
 		InteractionEvents.register();
+		ProximityTriggers.register();
+		
+		// 注册命令
+		VisualNovelCommands.register();
 		
 		LOGGER.info("视觉小说引擎初始化完成");
 	}
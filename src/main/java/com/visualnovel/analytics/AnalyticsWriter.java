@@ -0,0 +1,211 @@
+package com.visualnovel.analytics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 统计数据的后台写入线程。
+ * 快照通过容量固定的队列交给写入线程，队列满时丢弃最旧的快照（快照是累计值，新的快照包含旧的内容）。
+ * 启动时读取上次导出的 choices.json 作为基数，之后每次写入 基数 + 本次运行的累计值，
+ * 同时输出 choices.json 和便于表格软件打开的 choices.csv。
+ */
+class AnalyticsWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnalyticsWriter.class);
+    private static final int QUEUE_CAPACITY = 4;
+
+    private final Path directory;
+    private final Gson gson;
+    private final ThreadPoolExecutor executor;
+    private Map<String, Map<String, Totals>> baseline;
+
+    AnalyticsWriter(Path directory) {
+        this.directory = directory;
+        this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "VisualNovel Analytics IO");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /**
+     * 在写入线程上读取上次导出的统计
+     */
+    void start() {
+        executor.execute(() -> baseline = readBaseline());
+    }
+
+    /**
+     * 提交快照，不会阻塞调用线程
+     */
+    void submit(List<ChoiceAnalytics.NodeSnapshot> snapshot) {
+        executor.execute(() -> write(snapshot));
+    }
+
+    /**
+     * 等待队列中的快照写完
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("等待对话统计写入超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Map<String, Map<String, Totals>> readBaseline() {
+        Map<String, Map<String, Totals>> totals = new TreeMap<>();
+        Path file = directory.resolve("choices.json");
+        if (!Files.exists(file)) {
+            return totals;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            JsonObject root = gson.fromJson(reader, JsonObject.class);
+            if (root == null) {
+                return totals;
+            }
+            for (Map.Entry<String, JsonElement> dialogue : root.entrySet()) {
+                Map<String, Totals> nodes = totals.computeIfAbsent(dialogue.getKey(), id -> new TreeMap<>());
+                for (Map.Entry<String, JsonElement> node : dialogue.getValue().getAsJsonObject().entrySet()) {
+                    JsonObject object = node.getValue().getAsJsonObject();
+                    Totals loaded = new Totals();
+                    loaded.views = object.get("views").getAsLong();
+                    loaded.aborts = object.get("aborts").getAsLong();
+                    loaded.timeMillis = object.get("timeMillis").getAsLong();
+                    JsonArray choices = object.getAsJsonArray("choices");
+                    loaded.choices = new long[choices.size()];
+                    for (int i = 0; i < loaded.choices.length; i++) {
+                        loaded.choices[i] = choices.get(i).getAsLong();
+                    }
+                    nodes.put(node.getKey(), loaded);
+                }
+            }
+        } catch (IOException | JsonParseException | IllegalStateException | NullPointerException e) {
+            LOGGER.error("读取对话统计失败，将重新开始计数: " + file, e);
+            totals.clear();
+        }
+        return totals;
+    }
+
+    private void write(List<ChoiceAnalytics.NodeSnapshot> snapshot) {
+        // 合并基数和本次运行的累计值
+        Map<String, Map<String, Totals>> merged = new TreeMap<>();
+        if (baseline != null) {
+            baseline.forEach((dialogueId, nodes) -> nodes.forEach((nodeId, totals) ->
+                    merged.computeIfAbsent(dialogueId, id -> new TreeMap<>()).put(nodeId, totals.copy())));
+        }
+        for (ChoiceAnalytics.NodeSnapshot row : snapshot) {
+            merged.computeIfAbsent(row.dialogueId, id -> new TreeMap<>())
+                    .computeIfAbsent(row.nodeId, id -> new Totals())
+                    .add(row);
+        }
+
+        JsonObject root = new JsonObject();
+        StringBuilder csv = new StringBuilder("dialogue,node,views,aborts,total_time_ms,avg_time_ms,choices\n");
+        merged.forEach((dialogueId, nodes) -> {
+            JsonObject dialogue = new JsonObject();
+            nodes.forEach((nodeId, totals) -> {
+                JsonObject node = new JsonObject();
+                node.addProperty("views", totals.views);
+                node.addProperty("aborts", totals.aborts);
+                node.addProperty("timeMillis", totals.timeMillis);
+                JsonArray choices = new JsonArray();
+                StringBuilder choiceColumn = new StringBuilder();
+                for (int i = 0; i < totals.choices.length; i++) {
+                    choices.add(totals.choices[i]);
+                    if (i > 0) {
+                        choiceColumn.append(';');
+                    }
+                    choiceColumn.append(totals.choices[i]);
+                }
+                node.add("choices", choices);
+                dialogue.add(nodeId, node);
+
+                csv.append(csvField(dialogueId)).append(',').append(csvField(nodeId)).append(',')
+                        .append(totals.views).append(',').append(totals.aborts).append(',')
+                        .append(totals.timeMillis).append(',')
+                        .append(totals.views > 0 ? totals.timeMillis / totals.views : 0).append(',')
+                        .append(choiceColumn).append('\n');
+            });
+            root.add(dialogueId, dialogue);
+        });
+
+        try {
+            Files.createDirectories(directory);
+            writeAtomically(directory.resolve("choices.json"), gson.toJson(root));
+            writeAtomically(directory.resolve("choices.csv"), csv.toString());
+        } catch (IOException e) {
+            LOGGER.error("写入对话统计失败: " + directory, e);
+        }
+    }
+
+    private static void writeAtomically(Path file, String content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+            writer.write(content);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * 合并后的节点统计
+     */
+    private static final class Totals {
+        private long views;
+        private long aborts;
+        private long timeMillis;
+        private long[] choices = new long[0];
+
+        private void add(ChoiceAnalytics.NodeSnapshot row) {
+            views += row.views;
+            aborts += row.aborts;
+            timeMillis += row.timeMillis;
+            if (choices.length < row.choices.length) {
+                choices = Arrays.copyOf(choices, row.choices.length);
+            }
+            for (int i = 0; i < row.choices.length; i++) {
+                choices[i] += row.choices[i];
+            }
+        }
+
+        private Totals copy() {
+            Totals copy = new Totals();
+            copy.views = views;
+            copy.aborts = aborts;
+            copy.timeMillis = timeMillis;
+            copy.choices = choices.clone();
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.visualnovel.analytics;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.WorldSavePath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对话选项统计：按脚本和节点累计显示次数、各选项的选择次数、中途关闭次数和停留时间。
+ * 计数器使用 LongAdder，记录时没有锁和IO；服务器每隔一段时间生成快照交给后台写入线程导出。
+ */
+public class ChoiceAnalytics {
+    // 导出间隔，可通过 -Dvisualnovel.analyticsFlushTicks 调整，0 表示关闭统计
+    private static final int FLUSH_INTERVAL_TICKS = Integer.getInteger("visualnovel.analyticsFlushTicks", 1200);
+
+    private final Map<String, Map<String, NodeStats>> stats;
+    private AnalyticsWriter writer;
+    private int ticksUntilFlush;
+
+    public ChoiceAnalytics() {
+        this.stats = new ConcurrentHashMap<>();
+        this.ticksUntilFlush = FLUSH_INTERVAL_TICKS;
+    }
+
+    public boolean isEnabled() {
+        return FLUSH_INTERVAL_TICKS > 0;
+    }
+
+    /**
+     * 服务器启动时在存档目录下启动写入线程
+     */
+    public void open(MinecraftServer server) {
+        if (!isEnabled()) {
+            return;
+        }
+        writer = new AnalyticsWriter(server.getSavePath(WorldSavePath.ROOT).resolve("visualnovel").resolve("analytics"));
+        writer.start();
+    }
+
+    /**
+     * 服务器停止时导出最后一次快照并等待写入完成
+     */
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        writer.submit(snapshot());
+        writer.close();
+        writer = null;
+        stats.clear();
+    }
+
+    /**
+     * 每个服务器刻调用，到达导出间隔时把快照放入写入队列
+     */
+    public void tick() {
+        if (writer == null || --ticksUntilFlush > 0) {
+            return;
+        }
+        ticksUntilFlush = FLUSH_INTERVAL_TICKS;
+        writer.submit(snapshot());
+    }
+
+    /**
+     * 记录节点被显示给若干名玩家
+     */
+    public void recordView(String dialogueId, String nodeId, int choiceCount, int viewers) {
+        if (isEnabled()) {
+            node(dialogueId, nodeId, choiceCount).views.add(viewers);
+        }
+    }
+
+    /**
+     * 记录节点上的选项被选择
+     */
+    public void recordChoice(String dialogueId, String nodeId, int choiceIndex, int choiceCount) {
+        if (isEnabled()) {
+            node(dialogueId, nodeId, choiceCount).choices[choiceIndex].increment();
+        }
+    }
+
+    /**
+     * 记录玩家在节点上关闭了对话
+     */
+    public void recordAbort(String dialogueId, String nodeId) {
+        if (isEnabled()) {
+            node(dialogueId, nodeId, 0).aborts.increment();
+        }
+    }
+
+    /**
+     * 记录会话在节点上停留的时间
+     */
+    public void recordTime(String dialogueId, String nodeId, long nanos) {
+        if (isEnabled()) {
+            node(dialogueId, nodeId, 0).timeNanos.add(nanos);
+        }
+    }
+
+    private NodeStats node(String dialogueId, String nodeId, int choiceCount) {
+        Map<String, NodeStats> nodes = stats.computeIfAbsent(dialogueId, id -> new ConcurrentHashMap<>());
+        NodeStats node = nodes.get(nodeId);
+        if (node == null || node.choices.length < choiceCount) {
+            // 脚本重载后选项可能变多，扩容时保留已有的计数器
+            node = nodes.compute(nodeId, (id, existing) ->
+                    existing == null || existing.choices.length < choiceCount
+                            ? new NodeStats(existing, choiceCount) : existing);
+        }
+        return node;
+    }
+
+    private List<NodeSnapshot> snapshot() {
+        List<NodeSnapshot> rows = new ArrayList<>();
+        stats.forEach((dialogueId, nodes) -> nodes.forEach((nodeId, node) -> {
+            long[] choices = new long[node.choices.length];
+            for (int i = 0; i < choices.length; i++) {
+                choices[i] = node.choices[i].sum();
+            }
+            rows.add(new NodeSnapshot(dialogueId, nodeId, node.views.sum(), node.aborts.sum(),
+                    node.timeNanos.sum() / 1_000_000L, choices));
+        }));
+        return rows;
+    }
+
+    /**
+     * 单个节点的计数器
+     */
+    private static final class NodeStats {
+        private final LongAdder views;
+        private final LongAdder aborts;
+        private final LongAdder timeNanos;
+        private final LongAdder[] choices;
+
+        private NodeStats(NodeStats existing, int choiceCount) {
+            this.views = existing != null ? existing.views : new LongAdder();
+            this.aborts = existing != null ? existing.aborts : new LongAdder();
+            this.timeNanos = existing != null ? existing.timeNanos : new LongAdder();
+            this.choices = new LongAdder[choiceCount];
+            for (int i = 0; i < choiceCount; i++) {
+                choices[i] = existing != null && i < existing.choices.length ? existing.choices[i] : new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * 导出时某一节点的计数快照
+     */
+    static final class NodeSnapshot {
+        final String dialogueId;
+        final String nodeId;
+        final long views;
+        final long aborts;
+        final long timeMillis;
+        final long[] choices;
+
+        NodeSnapshot(String dialogueId, String nodeId, long views, long aborts, long timeMillis, long[] choices) {
+            this.dialogueId = dialogueId;
+            this.nodeId = nodeId;
+            this.views = views;
+            this.aborts = aborts;
+            this.timeMillis = timeMillis;
+            this.choices = choices;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.visualnovel.command;
+
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.visualnovel.VisualNovel;
+import com.visualnovel.config.DialogueState;
+import com.visualnovel.replay.DialogueRecorder;
+import com.visualnovel.replay.DialogueReplayer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.minecraft.command.argument.EntityArgumentType;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.Text;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * 视觉小说引擎的管理命令
+ */
+public class VisualNovelCommands {
+    /**
+     * 注册命令
+     */
+    public static void register() {
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) ->
+                dispatcher.register(CommandManager.literal("visualnovel")
+                        .requires(source -> source.hasPermissionLevel(2))
+                        // /visualnovel play <玩家> <对话ID> [leader|vote]
+                        .then(CommandManager.literal("play")
+                                .then(CommandManager.argument("targets", EntityArgumentType.players())
+                                        .then(CommandManager.argument("dialogue", StringArgumentType.string())
+                                                .executes(context -> play(context, DialogueState.GroupMode.LEADER))
+                                                .then(CommandManager.literal("leader")
+                                                        .executes(context -> play(context, DialogueState.GroupMode.LEADER)))
+                                                .then(CommandManager.literal("vote")
+                                                        .executes(context -> play(context, DialogueState.GroupMode.VOTE))))))
+                        // /visualnovel record start|stop
+                        .then(CommandManager.literal("record")
+                                .then(CommandManager.literal("start").executes(VisualNovelCommands::startRecording))
+                                .then(CommandManager.literal("stop").executes(VisualNovelCommands::stopRecording)))
+                        // /visualnovel replay <录制文件>
+                        .then(CommandManager.literal("replay")
+                                .then(CommandManager.argument("recording", StringArgumentType.string())
+                                        .executes(VisualNovelCommands::replay)))));
+    }
+
+    /**
+     * 开始录制对话会话
+     */
+    private static int startRecording(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        Path file = VisualNovel.DIALOGUE_MANAGER.getRecorder().start(source.getServer());
+        source.sendFeedback(() -> Text.literal("开始录制对话: " + file.getFileName()), true);
+        return 1;
+    }
+
+    /**
+     * 停止录制对话会话
+     */
+    private static int stopRecording(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        DialogueRecorder recorder = VisualNovel.DIALOGUE_MANAGER.getRecorder();
+        if (!recorder.isRecording()) {
+            source.sendError(Text.literal("当前没有在录制对话"));
+            return 0;
+        }
+        int players = recorder.getPlayerCount();
+        recorder.stop();
+        source.sendFeedback(() -> Text.literal("对话录制已停止，共 " + players + " 名玩家"), true);
+        return 1;
+    }
+
+    /**
+     * 回放录制的对话会话，完成后向执行者报告结果
+     */
+    private static int replay(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        String recording = StringArgumentType.getString(context, "recording");
+        try {
+            DialogueReplayer.start(source.getServer(), recording, report -> {
+                for (String line : report) {
+                    source.sendFeedback(() -> Text.literal(line), false);
+                }
+            });
+        } catch (IOException e) {
+            source.sendError(Text.literal("无法回放对话录制: " + e.getMessage()));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.literal("开始回放对话录制: " + recording), false);
+        return 1;
+    }
+
+    /**
+     * 为目标玩家开始一段共享对话
+     */
+    private static int play(CommandContext<ServerCommandSource> context, DialogueState.GroupMode mode)
+            throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        Collection<ServerPlayerEntity> targets = EntityArgumentType.getPlayers(context, "targets");
+        String dialogueId = StringArgumentType.getString(context, "dialogue");
+
+        if (!VisualNovel.DIALOGUE_MANAGER.hasDialogue(dialogueId)) {
+            source.sendError(Text.literal("未找到对话: " + dialogueId));
+            return 0;
+        }
+
+        // 执行者在目标中时由其担任队长，否则由第一个目标担任
+        ServerPlayerEntity leader = source.getPlayer();
+        if (leader == null || !targets.contains(leader)) {
+            leader = targets.iterator().next();
+        }
+
+        VisualNovel.DIALOGUE_MANAGER.startGroupDialogue(leader, targets, dialogueId, null, mode);
+        source.sendFeedback(() -> Text.literal("已为 " + targets.size() + " 名玩家开始对话: " + dialogueId), true);
+        return targets.size();
+    }
+}
@@ -0,0 +1,230 @@
+package com.visualnovel.config;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.ParseResults;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.visualnovel.dialogue.Dialogue;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 节点动作执行器。
+ * 节点显示时其动作被加入队列，在本刻结束时统一执行；
+ * 命令按脚本版本只解析一次，执行时再绑定到各个玩家的命令源。
+ */
+public class ActionExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActionExecutor.class);
+    // 动作命令使用的权限等级，与数据包函数相同
+    private static final int COMMAND_PERMISSION_LEVEL = 2;
+
+    private final List<Batch> pending;
+    private final Map<CommandKey, ParseResults<ServerCommandSource>> parsedCommands;
+    // 每个脚本最近一次执行命令时的版本，版本变化后丢弃旧版本的解析结果
+    private final Map<String, Integer> parsedVersions;
+    // 是否执行影响世界的动作（命令和传送），回放时关闭
+    private final boolean worldActions;
+    private CommandDispatcher<ServerCommandSource> parsedWith;
+
+    public ActionExecutor() {
+        this(true);
+    }
+
+    public ActionExecutor(boolean worldActions) {
+        this.pending = new ArrayList<>();
+        this.parsedCommands = new HashMap<>();
+        this.parsedVersions = new HashMap<>();
+        this.worldActions = worldActions;
+    }
+
+    /**
+     * 将节点的动作加入本刻的执行队列
+     */
+    public void queue(Dialogue dialogue, String dialogueId, List<ServerPlayerEntity> players,
+            List<Dialogue.Action> actions) {
+        if (actions.isEmpty() || players.isEmpty()) {
+            return;
+        }
+        pending.add(new Batch(dialogueId, dialogue.getVersionHash(), List.copyOf(players), actions));
+    }
+
+    /**
+     * 执行本刻排队的所有动作
+     */
+    public void flush(MinecraftServer server) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // 数据包重载后命令树会被替换，之前的解析结果随之失效
+        CommandDispatcher<ServerCommandSource> dispatcher = server.getCommandManager().getDispatcher();
+        if (dispatcher != parsedWith) {
+            parsedCommands.clear();
+            parsedVersions.clear();
+            parsedWith = dispatcher;
+        }
+
+        for (Batch batch : pending) {
+            for (ServerPlayerEntity player : batch.players) {
+                if (player.isDisconnected()) {
+                    continue;
+                }
+                for (Dialogue.Action action : batch.actions) {
+                    try {
+                        execute(server, batch, player, action);
+                    } catch (Exception e) {
+                        LOGGER.error("执行对话动作失败: {} ({})", action.getType(), batch.dialogueId, e);
+                    }
+                }
+            }
+        }
+        pending.clear();
+    }
+
+    private void execute(MinecraftServer server, Batch batch, ServerPlayerEntity player, Dialogue.Action action) {
+        String type = action.getType();
+        if (Dialogue.Action.GIVE_ITEM.equals(type)) {
+            Item item = Registries.ITEM.get(Identifier.tryParse(Objects.requireNonNullElse(action.getItem(), "")));
+            if (item == Items.AIR) {
+                LOGGER.warn("未知的物品: {} ({})", action.getItem(), batch.dialogueId);
+                return;
+            }
+            player.getInventory().offerOrDrop(new ItemStack(item, Math.max(1, action.getCount())));
+        } else if (Dialogue.Action.SET_FLAG.equals(type)) {
+            if (action.getVariableId() >= 0) {
+                PlayerVariables.of(player).setFlag(action.getVariableId(), action.getValue());
+            }
+        } else if (Dialogue.Action.SET_VAR.equals(type)) {
+            if (action.getVariableId() >= 0) {
+                PlayerVariables.of(player).set(action.getVariableId(), action.getNumber());
+            }
+        } else if (Dialogue.Action.ADD_VAR.equals(type)) {
+            if (action.getVariableId() >= 0) {
+                PlayerVariables.of(player).add(action.getVariableId(), action.getNumber());
+            }
+        } else if (!worldActions && (Dialogue.Action.COMMAND.equals(type) || Dialogue.Action.TELEPORT.equals(type))) {
+            return;
+        } else if (Dialogue.Action.COMMAND.equals(type)) {
+            runCommand(server, batch, player, action.getCommand());
+        } else if (Dialogue.Action.TELEPORT.equals(type)) {
+            ServerWorld world = player.getServerWorld();
+            if (action.getDimension() != null) {
+                Identifier dimension = Identifier.tryParse(action.getDimension());
+                world = dimension != null ? server.getWorld(RegistryKey.of(RegistryKeys.WORLD, dimension)) : null;
+                if (world == null) {
+                    LOGGER.warn("未知的维度: {} ({})", action.getDimension(), batch.dialogueId);
+                    return;
+                }
+            }
+            player.teleport(world, action.getX(), action.getY(), action.getZ(), player.getYaw(), player.getPitch());
+        } else {
+            LOGGER.warn("未知的动作类型: {} ({})", type, batch.dialogueId);
+        }
+    }
+
+    /**
+     * 使用缓存的解析结果以玩家身份执行命令
+     */
+    private void runCommand(MinecraftServer server, Batch batch, ServerPlayerEntity player, String command) {
+        if (command == null || command.isEmpty()) {
+            return;
+        }
+        if (command.startsWith("/")) {
+            command = command.substring(1);
+        }
+
+        Integer previousVersion = parsedVersions.put(batch.dialogueId, batch.versionHash);
+        if (previousVersion != null && previousVersion != batch.versionHash) {
+            parsedCommands.keySet().removeIf(cached -> cached.dialogueId.equals(batch.dialogueId)
+                    && cached.versionHash != batch.versionHash);
+        }
+
+        CommandManager commandManager = server.getCommandManager();
+        CommandKey key = new CommandKey(batch.dialogueId, batch.versionHash, command);
+        ParseResults<ServerCommandSource> parsed = parsedCommands.get(key);
+        if (parsed == null && !parsedCommands.containsKey(key)) {
+            // 解析时即按权限上限检查各节点的 requires，执行时替换来源不会再次检查
+            parsed = commandManager.getDispatcher().parse(command,
+                    server.getCommandSource().withLevel(COMMAND_PERMISSION_LEVEL));
+            CommandSyntaxException error = CommandManager.getException(parsed);
+            if (error != null) {
+                LOGGER.error("对话动作命令无效: /{} ({}): {}", command, batch.dialogueId, error.getMessage());
+                parsed = null;
+            }
+            // 无效的命令同样缓存，避免每次执行都重新解析
+            parsedCommands.put(key, parsed);
+        }
+        if (parsed == null) {
+            return;
+        }
+
+        ServerCommandSource source = player.getCommandSource().withLevel(COMMAND_PERMISSION_LEVEL).withSilent();
+        ParseResults<ServerCommandSource> bound = new ParseResults<>(
+                parsed.getContext().copy().withSource(source), parsed.getReader(), parsed.getExceptions());
+        commandManager.execute(bound, command);
+    }
+
+    /**
+     * 同一节点显示时排队的一批动作
+     */
+    private static final class Batch {
+        private final String dialogueId;
+        private final int versionHash;
+        private final List<ServerPlayerEntity> players;
+        private final List<Dialogue.Action> actions;
+
+        private Batch(String dialogueId, int versionHash, List<ServerPlayerEntity> players,
+                List<Dialogue.Action> actions) {
+            this.dialogueId = dialogueId;
+            this.versionHash = versionHash;
+            this.players = players;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * 命令缓存的键：同一脚本版本中的同一条命令
+     */
+    private static final class CommandKey {
+        private final String dialogueId;
+        private final int versionHash;
+        private final String command;
+
+        private CommandKey(String dialogueId, int versionHash, String command) {
+            this.dialogueId = dialogueId;
+            this.versionHash = versionHash;
+            this.command = command;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CommandKey)) return false;
+            CommandKey other = (CommandKey) o;
+            return versionHash == other.versionHash && dialogueId.equals(other.dialogueId)
+                    && command.equals(other.command);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dialogueId, versionHash, command);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.visualnovel.config;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.passive.VillagerEntity;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.Identifier;
+import net.minecraft.village.VillagerProfession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 实体与对话的绑定索引。
+ * 按 实体UUID > 记分板标签 > 村民职业 > 命名区域 > 实体类型 的优先级解析对话ID，
+ * 解析结果按实体缓存，绑定变化或实体自身变化（职业、标签、所在方块）时失效。
+ */
+public class DialogueBindings {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DialogueBindings.class);
+    private static final Path BINDINGS_PATH = Paths.get("config", "visualnovel-bindings.json");
+
+    private final Gson gson;
+    private final Map<UUID, String> entityBindings;
+    private final Map<String, String> tagBindings;
+    private final Map<VillagerProfession, String> professionBindings;
+    private final Map<EntityType<?>, String> typeBindings;
+    private final List<Region> regions;
+    private final Map<UUID, ResolvedBinding> resolved;
+    private int generation;
+
+    public DialogueBindings() {
+        this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.entityBindings = new HashMap<>();
+        this.tagBindings = new HashMap<>();
+        this.professionBindings = new HashMap<>();
+        this.typeBindings = new HashMap<>();
+        this.regions = new ArrayList<>();
+        this.resolved = new HashMap<>();
+    }
+
+    /**
+     * 从配置文件加载绑定，文件不存在时写入默认绑定（村民 -> 示例对话）
+     */
+    public void load() {
+        BindingConfig config;
+        try {
+            if (!Files.exists(BINDINGS_PATH)) {
+                config = new BindingConfig();
+                config.types.put("minecraft:villager", "example_dialogue");
+                Files.createDirectories(BINDINGS_PATH.getParent());
+                Files.writeString(BINDINGS_PATH, gson.toJson(config));
+                LOGGER.info("已创建默认绑定文件: " + BINDINGS_PATH);
+            } else {
+                try (BufferedReader reader = Files.newBufferedReader(BINDINGS_PATH)) {
+                    config = gson.fromJson(reader, BindingConfig.class);
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            LOGGER.error("加载对话绑定失败: " + BINDINGS_PATH, e);
+            return;
+        }
+        apply(config != null ? config : new BindingConfig());
+    }
+
+    private void apply(BindingConfig config) {
+        entityBindings.clear();
+        tagBindings.clear();
+        professionBindings.clear();
+        typeBindings.clear();
+        regions.clear();
+
+        config.entities.forEach((uuid, dialogueId) -> {
+            try {
+                entityBindings.put(UUID.fromString(uuid), dialogueId);
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("无效的实体UUID绑定: " + uuid);
+            }
+        });
+        tagBindings.putAll(config.tags);
+        config.professions.forEach((id, dialogueId) -> {
+            Identifier identifier = Identifier.tryParse(id);
+            if (identifier != null && Registries.VILLAGER_PROFESSION.containsId(identifier)) {
+                professionBindings.put(Registries.VILLAGER_PROFESSION.get(identifier), dialogueId);
+            } else {
+                LOGGER.warn("未知的村民职业: " + id);
+            }
+        });
+        config.types.forEach((id, dialogueId) -> {
+            Identifier identifier = Identifier.tryParse(id);
+            if (identifier != null && Registries.ENTITY_TYPE.containsId(identifier)) {
+                typeBindings.put(Registries.ENTITY_TYPE.get(identifier), dialogueId);
+            } else {
+                LOGGER.warn("未知的实体类型: " + id);
+            }
+        });
+        for (Region region : config.regions) {
+            if (region.isValid()) {
+                regions.add(region);
+            } else {
+                LOGGER.warn("无效的区域绑定: " + region.name);
+            }
+        }
+
+        invalidateAll();
+        LOGGER.info("已加载对话绑定: {} 个实体, {} 个标签, {} 个职业, {} 个区域, {} 个实体类型",
+                entityBindings.size(), tagBindings.size(), professionBindings.size(), regions.size(),
+                typeBindings.size());
+    }
+
+    /**
+     * 解析实体对应的对话ID，没有绑定时返回 null
+     */
+    public String resolve(Entity entity) {
+        VillagerProfession profession = entity instanceof VillagerEntity
+                ? ((VillagerEntity) entity).getVillagerData().getProfession()
+                : null;
+        Set<String> tags = entity.getCommandTags();
+        int tagsHash = tags.isEmpty() ? 0 : tags.hashCode();
+        long blockPos = regions.isEmpty() ? 0L : entity.getBlockPos().asLong();
+
+        ResolvedBinding cached = resolved.get(entity.getUuid());
+        if (cached != null && cached.matches(generation, profession, tagsHash, blockPos)) {
+            return cached.dialogueId;
+        }
+
+        String dialogueId = lookup(entity, profession, tags);
+        resolved.put(entity.getUuid(), new ResolvedBinding(generation, profession, tagsHash, blockPos, dialogueId));
+        return dialogueId;
+    }
+
+    private String lookup(Entity entity, VillagerProfession profession, Set<String> tags) {
+        String dialogueId = entityBindings.get(entity.getUuid());
+        if (dialogueId != null) {
+            return dialogueId;
+        }
+
+        if (!tagBindings.isEmpty()) {
+            for (String tag : tags) {
+                dialogueId = tagBindings.get(tag);
+                if (dialogueId != null) {
+                    return dialogueId;
+                }
+            }
+        }
+
+        if (profession != null) {
+            dialogueId = professionBindings.get(profession);
+            if (dialogueId != null) {
+                return dialogueId;
+            }
+        }
+
+        if (!regions.isEmpty()) {
+            String dimension = entity.getWorld().getRegistryKey().getValue().toString();
+            for (Region region : regions) {
+                if (region.contains(dimension, entity.getBlockX(), entity.getBlockY(), entity.getBlockZ())) {
+                    return region.dialogue;
+                }
+            }
+        }
+
+        return typeBindings.get(entity.getType());
+    }
+
+    /**
+     * 绑定单个实体到对话，传入 null 时移除绑定
+     */
+    public void bindEntity(UUID entityUuid, String dialogueId) {
+        if (dialogueId == null) {
+            entityBindings.remove(entityUuid);
+        } else {
+            entityBindings.put(entityUuid, dialogueId);
+        }
+        resolved.remove(entityUuid);
+    }
+
+    /**
+     * 实体卸载时清除其缓存的解析结果
+     */
+    public void invalidate(UUID entityUuid) {
+        resolved.remove(entityUuid);
+    }
+
+    /**
+     * 使所有缓存的解析结果失效
+     */
+    public void invalidateAll() {
+        generation++;
+        resolved.clear();
+    }
+
+    /**
+     * 缓存的解析结果及其依赖的实体状态
+     */
+    private static final class ResolvedBinding {
+        private final int generation;
+        private final VillagerProfession profession;
+        private final int tagsHash;
+        private final long blockPos;
+        private final String dialogueId;
+
+        private ResolvedBinding(int generation, VillagerProfession profession, int tagsHash, long blockPos,
+                String dialogueId) {
+            this.generation = generation;
+            this.profession = profession;
+            this.tagsHash = tagsHash;
+            this.blockPos = blockPos;
+            this.dialogueId = dialogueId;
+        }
+
+        private boolean matches(int generation, VillagerProfession profession, int tagsHash, long blockPos) {
+            return this.generation == generation && this.profession == profession
+                    && this.tagsHash == tagsHash && this.blockPos == blockPos;
+        }
+    }
+
+    /**
+     * 绑定配置文件结构
+     */
+    private static class BindingConfig {
+        private Map<String, String> entities = new LinkedHashMap<>();
+        private Map<String, String> tags = new LinkedHashMap<>();
+        private Map<String, String> professions = new LinkedHashMap<>();
+        private Map<String, String> types = new LinkedHashMap<>();
+        private List<Region> regions = new ArrayList<>();
+    }
+
+    /**
+     * 命名区域绑定
+     */
+    private static class Region {
+        private String name;
+        private String dimension = "minecraft:overworld";
+        private int[] from;
+        private int[] to;
+        private String dialogue;
+
+        private boolean isValid() {
+            return dialogue != null && from != null && from.length == 3 && to != null && to.length == 3;
+        }
+
+        private boolean contains(String dimension, int x, int y, int z) {
+            return this.dimension.equals(dimension)
+                    && x >= Math.min(from[0], to[0]) && x <= Math.max(from[0], to[0])
+                    && y >= Math.min(from[1], to[1]) && y <= Math.max(from[1], to[1])
+                    && z >= Math.min(from[2], to[2]) && z <= Math.max(from[2], to[2]);
+        }
+    }
+}
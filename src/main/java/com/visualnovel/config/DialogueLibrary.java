@@ -0,0 +1,296 @@
+package com.visualnovel.config;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.visualnovel.dialogue.Dialogue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 对话脚本库。
+ * 配置目录中的脚本启动时只建立脚本ID到文件的索引，第一次使用时在后台线程加载，并保存在按文件大小计重的LRU缓存中；
+ * 进行中的会话会固定其使用的脚本，固定的脚本不会被淘汰。会话自己持有开始时的脚本版本，
+ * 重建索引时缓存整体清空，之后开始的会话使用新的文件。
+ * 数据包中的脚本在资源重载的准备阶段编译完成，应用阶段整体替换。
+ */
+public class DialogueLibrary {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DialogueLibrary.class);
+    // 缓存的脚本文件总大小上限，可通过 -Dvisualnovel.scriptCacheBytes 调整
+    private static final long DEFAULT_MAX_WEIGHT = Long.getLong("visualnovel.scriptCacheBytes", 32L << 20);
+
+    private final Gson gson;
+    private final long maxWeight;
+    private final Map<String, Path> index;
+    private final LinkedHashMap<String, CachedScript> cache;
+    private final Map<String, Integer> pins;
+    // 正在后台加载的脚本，同一脚本同时只加载一次
+    private final Map<String, CompletableFuture<Dialogue>> loading;
+    private final ExecutorService loader;
+    // 每次重建索引加一，重建前开始的加载结果不再放入缓存
+    private int indexGeneration;
+    private volatile Map<String, Dialogue> datapackScripts;
+    private long weight;
+
+    public DialogueLibrary(Gson gson) {
+        this(gson, DEFAULT_MAX_WEIGHT);
+    }
+
+    public DialogueLibrary(Gson gson, long maxWeight) {
+        this.gson = gson;
+        this.maxWeight = maxWeight;
+        this.index = new HashMap<>();
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        this.pins = new HashMap<>();
+        this.loading = new HashMap<>();
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "VisualNovel Script IO");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.datapackScripts = Map.of();
+    }
+
+    /**
+     * 扫描目录重建脚本索引，并清空已缓存的脚本；进行中的会话继续使用各自持有的旧版本
+     */
+    public void rebuildIndex(Path directory) throws IOException {
+        index.clear();
+        cache.clear();
+        weight = 0;
+        indexGeneration++;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.toString().toLowerCase().endsWith(".json"))
+                    .forEach(path -> {
+                        String fileName = path.getFileName().toString();
+                        index.put(fileName.substring(0, fileName.lastIndexOf('.')), path);
+                    });
+        }
+        LOGGER.info("已索引 {} 个对话脚本", index.size());
+    }
+
+    /**
+     * 替换全部数据包脚本，在服务器线程上调用
+     */
+    public void replaceDatapackScripts(Map<String, Dialogue> scripts) {
+        this.datapackScripts = Map.copyOf(scripts);
+    }
+
+    public boolean contains(String dialogueId) {
+        return datapackScripts.containsKey(dialogueId) || index.containsKey(dialogueId);
+    }
+
+    public Set<String> ids() {
+        Set<String> ids = new HashSet<>(index.keySet());
+        ids.addAll(datapackScripts.keySet());
+        return ids;
+    }
+
+    /**
+     * 获取已在内存中的脚本（数据包脚本或已缓存的配置脚本），不读取文件
+     */
+    public Dialogue getLoaded(String dialogueId) {
+        Dialogue datapackScript = datapackScripts.get(dialogueId);
+        if (datapackScript != null) {
+            return datapackScript;
+        }
+        CachedScript cached = cache.get(dialogueId);
+        return cached != null ? cached.dialogue : null;
+    }
+
+    /**
+     * 获取脚本，未缓存时在当前线程从文件加载，不存在或加载失败时返回 null。
+     * 服务器线程上应使用 {@link #load}，这里供回放等需要按顺序同步执行的场合使用
+     */
+    public Dialogue get(String dialogueId) {
+        Dialogue loaded = getLoaded(dialogueId);
+        if (loaded != null) {
+            return loaded;
+        }
+        Path path = index.get(dialogueId);
+        if (path == null) {
+            return null;
+        }
+        CachedScript script = read(path);
+        if (script == null) {
+            return null;
+        }
+        insert(dialogueId, script);
+        return script.dialogue;
+    }
+
+    /**
+     * 获取脚本，未缓存时在后台线程读取和解析，完成后在 mainThread 上放入缓存；不存在或加载失败时结果为 null
+     */
+    public CompletableFuture<Dialogue> load(String dialogueId, Executor mainThread) {
+        Dialogue loaded = getLoaded(dialogueId);
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
+        }
+        CompletableFuture<Dialogue> pending = loading.get(dialogueId);
+        if (pending != null) {
+            return pending;
+        }
+        Path path = index.get(dialogueId);
+        if (path == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        int generation = indexGeneration;
+        pending = CompletableFuture.supplyAsync(() -> read(path), loader).handleAsync((script, error) -> {
+            loading.remove(dialogueId);
+            if (error != null) {
+                LOGGER.error("加载对话文件失败: " + path.getFileName(), error);
+                return null;
+            }
+            if (script == null) {
+                return null;
+            }
+            // 加载期间索引已重建时只交给等待的调用方，不放入缓存
+            if (generation == indexGeneration && !cache.containsKey(dialogueId)) {
+                insert(dialogueId, script);
+            }
+            return script.dialogue;
+        }, mainThread);
+        // 在服务器线程上调用且读取已经完成时，回调可能已经同步执行完毕
+        if (!pending.isDone()) {
+            loading.put(dialogueId, pending);
+        }
+        return pending;
+    }
+
+    /**
+     * 读取并解析脚本文件，失败时返回 null；可以在任意线程调用
+     */
+    private CachedScript read(Path path) {
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            Dialogue dialogue = parse(bytes);
+            if (dialogue == null) {
+                return null;
+            }
+            LOGGER.debug("已加载对话脚本: " + path.getFileName());
+            return new CachedScript(dialogue, bytes.length);
+        } catch (IOException | JsonParseException e) {
+            LOGGER.error("加载对话文件失败: " + path.getFileName(), e);
+            return null;
+        }
+    }
+
+    private void insert(String dialogueId, CachedScript script) {
+        cache.put(dialogueId, script);
+        weight += script.weight;
+        // 刚加载的脚本还没有被会话固定，淘汰时跳过它
+        evict(dialogueId);
+    }
+
+    /**
+     * 解析并压缩脚本，记录内容哈希；可以在任意线程调用
+     */
+    public Dialogue parse(byte[] bytes) {
+        Dialogue dialogue = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Dialogue.class);
+        if (dialogue == null) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        dialogue.setVersionHash((int) crc.getValue());
+        dialogue.compact();
+        return dialogue;
+    }
+
+    /**
+     * 配置目录中脚本文件的快照，在服务器线程上调用
+     */
+    public List<Path> configScriptPaths() {
+        return List.copyOf(index.values());
+    }
+
+    /**
+     * 读取 {@link #configScriptPaths()} 中的脚本作为字典训练语料，读取的文件总大小不超过 maxBytes，
+     * 结果不进入缓存；可以在任意线程调用
+     */
+    public List<Dialogue> sampleConfigScripts(List<Path> paths, long maxBytes) {
+        List<Dialogue> samples = new ArrayList<>();
+        long total = 0;
+        for (Path path : paths) {
+            try {
+                long size = Files.size(path);
+                if (total + size > maxBytes) {
+                    continue;
+                }
+                Dialogue dialogue = parse(Files.readAllBytes(path));
+                if (dialogue != null) {
+                    samples.add(dialogue);
+                    total += size;
+                }
+            } catch (IOException | JsonParseException e) {
+                LOGGER.debug("读取训练语料失败: " + path.getFileName(), e);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * 固定脚本，会话开始时调用
+     */
+    public void pin(String dialogueId) {
+        pins.merge(dialogueId, 1, Integer::sum);
+    }
+
+    /**
+     * 取消固定，会话结束时调用
+     */
+    public void unpin(String dialogueId) {
+        Integer count = pins.get(dialogueId);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1) {
+            pins.remove(dialogueId);
+            evict(null);
+        } else {
+            pins.put(dialogueId, count - 1);
+        }
+    }
+
+    /**
+     * 按最近最少使用的顺序淘汰未固定的脚本（keep 除外），直到总大小不超过上限
+     */
+    private void evict(String keep) {
+        if (weight <= maxWeight) {
+            return;
+        }
+        Iterator<Map.Entry<String, CachedScript>> iterator = cache.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<String, CachedScript> entry = iterator.next();
+            if (pins.containsKey(entry.getKey()) || entry.getKey().equals(keep)) {
+                continue;
+            }
+            weight -= entry.getValue().weight;
+            iterator.remove();
+        }
+    }
+
+    private static final class CachedScript {
+        private final Dialogue dialogue;
+        private final long weight;
+
+        private CachedScript(Dialogue dialogue, long weight) {
+            this.dialogue = dialogue;
+            this.weight = weight;
+        }
+    }
+}
@@ -3,16 +3,25 @@ package com.visualnovel.config;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.visualnovel.VisualNovel;
+import com.visualnovel.analytics.ChoiceAnalytics;
 import com.visualnovel.dialogue.Dialogue;
+import com.visualnovel.dialogue.RichText;
+import com.visualnovel.dialogue.VariableCondition;
+import com.visualnovel.dialogue.VariableIds;
+import com.visualnovel.jfr.DialogueSessionEvent;
+import com.visualnovel.jfr.NodeAdvanceEvent;
+import com.visualnovel.jfr.VariableProcessingEvent;
+import com.visualnovel.network.DialogueTransport;
 import com.visualnovel.network.ServerNetworkHandler;
+import com.visualnovel.replay.DialogueRecorder;
 import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.minecraft.entity.Entity;
-import net.minecraft.entity.passive.VillagerEntity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.Item;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.registry.Registries;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.util.Identifier;
 import org.slf4j.Logger;
@@ -29,18 +38,61 @@ import java.util.*;
  */
 public class DialogueManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(DialogueManager.class);
-    private final Map<String, Dialogue> dialogues;
+    // 单次求值最多处理的节点数，超出后让出到下一刻
+    private static final int MAX_STEPS_PER_CALL = 32;
+    // 每刻所有会话合计最多处理的节点数
+    private static final int MAX_STEPS_PER_TICK = 512;
+    // 一条求值路径最多经过的节点数，超出视为脚本错误
+    private static final int MAX_STEPS_PER_EVALUATION = 256;
+    // 会话无任何输入和节点变化的最长刻数，超出后结束会话，可通过 -Dvisualnovel.sessionIdleTicks 调整，0 表示不限
+    private static final int SESSION_IDLE_TICKS = Integer.getInteger("visualnovel.sessionIdleTicks", 6000);
+    private final DialogueLibrary library;
     private final Map<UUID, DialogueState> playerStates;
     private final Set<String> completedDialogues;
+    private final NpcLocks npcLocks;
+    private final Queue<DialogueState> deferredSessions;
+    private final SessionStore sessionStore;
+    private final ActionExecutor actionExecutor;
+    private final TimingWheel timers;
+    private final ChoiceAnalytics analytics;
+    private final DialogueTransport transport;
+    private final DialogueRecorder recorder;
     private final Gson gson;
+    // 是否在后台线程加载未缓存的脚本；回放时为 false，按录制顺序同步加载
+    private final boolean asyncLoading;
+    // 正在等待脚本加载完成才能开始对话的队长
+    private final Set<UUID> pendingStarts;
+    private int tickBudget = MAX_STEPS_PER_TICK;
 
     public DialogueManager() {
-        this.dialogues = new HashMap<>();
+        this(new DialogueLibrary(new GsonBuilder().setPrettyPrinting().create()), ServerNetworkHandler.TRANSPORT,
+                true);
+        createDefaultDialogues();
+        loadDialogues();
+    }
+
+    /**
+     * 使用已有脚本库和指定传输层的管理器，供回放使用：不创建示例脚本，不执行命令和传送动作，脚本同步加载
+     */
+    public DialogueManager(DialogueLibrary library, DialogueTransport transport) {
+        this(library, transport, false);
+    }
+
+    private DialogueManager(DialogueLibrary library, DialogueTransport transport, boolean live) {
         this.playerStates = new HashMap<>();
         this.completedDialogues = new HashSet<>();
+        this.npcLocks = new NpcLocks();
+        this.deferredSessions = new ArrayDeque<>();
+        this.sessionStore = new SessionStore();
+        this.actionExecutor = new ActionExecutor(live);
+        this.timers = new TimingWheel();
+        this.analytics = new ChoiceAnalytics();
+        this.transport = transport;
+        this.recorder = new DialogueRecorder();
         this.gson = new GsonBuilder().setPrettyPrinting().create();
-        createDefaultDialogues();
-        loadDialogues();
+        this.library = library;
+        this.asyncLoading = live;
+        this.pendingStarts = new HashSet<>();
     }
 
     /**
@@ -128,10 +180,9 @@ public class DialogueManager {
     }
 
     /**
-     * 加载所有对话配置
+     * 重建对话脚本索引，脚本在第一次使用时才加载
      */
     public void loadDialogues() {
-        dialogues.clear();
         Path configDir = Paths.get("config", "visualnovel");
 
         try {
@@ -139,180 +190,641 @@ public class DialogueManager {
                 Files.createDirectories(configDir);
             }
 
-            Files.list(configDir)
-                .filter(path -> path.toString().toLowerCase().endsWith(".json"))
-                .forEach(path -> {
-                    try (BufferedReader reader = Files.newBufferedReader(path)) {
-                        Dialogue dialogue = gson.fromJson(reader, Dialogue.class);
-                        String fileName = path.getFileName().toString();
-                        dialogues.put(fileName.substring(0, fileName.lastIndexOf('.')), dialogue);
-                        LOGGER.info("已加载对话脚本: " + fileName);
-                    } catch (IOException e) {
-                        LOGGER.error("加载对话文件失败: " + path.getFileName(), e);
-                    }
-                });
-
-            LOGGER.info("已加载所有对话脚本");
+            library.rebuildIndex(configDir);
         } catch (IOException e) {
             LOGGER.error("无法访问配置目录: " + configDir, e);
         }
     }
 
+    /**
+     * 获取对话脚本库
+     */
+    public DialogueLibrary getLibrary() {
+        return library;
+    }
+
+    /**
+     * 获取对话录制器
+     */
+    public DialogueRecorder getRecorder() {
+        return recorder;
+    }
+
     /**
      * 检查是否存在指定ID的对话
      */
     public boolean hasDialogue(String dialogueId) {
-        return dialogues.containsKey(dialogueId);
+        return library.contains(dialogueId);
     }
 
     /**
      * 开始对话
      */
     public void startDialogue(ServerPlayerEntity player, String dialogueId, Entity targetEntity) {
+        startGroupDialogue(player, List.of(player), dialogueId, targetEntity, DialogueState.GroupMode.LEADER);
+    }
+
+    /**
+     * 开始群体对话，所有成员看到同一段对话，由队长或投票推进
+     */
+    public void startGroupDialogue(ServerPlayerEntity leader, Collection<ServerPlayerEntity> members,
+            String dialogueId, Entity targetEntity, DialogueState.GroupMode mode) {
+        startGroupDialogue(leader, members, dialogueId, targetEntity, mode, "start");
+    }
+
+    /**
+     * 从指定节点开始群体对话
+     */
+    public void startGroupDialogue(ServerPlayerEntity leader, Collection<ServerPlayerEntity> members,
+            String dialogueId, Entity targetEntity, DialogueState.GroupMode mode, String startNodeId) {
         if (isDialogueCompleted(dialogueId)) {
             return;
         }
 
-        Dialogue dialogue = dialogues.get(dialogueId);
-        if (dialogue == null) {
+        Dialogue dialogue = library.getLoaded(dialogueId);
+        if (dialogue != null || !asyncLoading) {
+            dialogue = dialogue != null ? dialogue : library.get(dialogueId);
+            if (dialogue != null) {
+                startSession(leader, members, dialogueId, dialogue, targetEntity, mode, startNodeId);
+            }
             return;
         }
 
-        // 创建对话状态
-        DialogueState state = new DialogueState(dialogueId, player, targetEntity);
-        state.setCurrentNodeId("start");
-        playerStates.put(player.getUuid(), state);
+        // 脚本未缓存时在后台线程读取和解析，完成后再开始；等待期间同一队长的重复请求忽略
+        if (!pendingStarts.add(leader.getUuid())) {
+            return;
+        }
+        List<ServerPlayerEntity> waiting = List.copyOf(members);
+        library.load(dialogueId, leader.getServer()).thenAccept(loaded -> {
+            pendingStarts.remove(leader.getUuid());
+            if (loaded == null || leader.isDisconnected() || (targetEntity != null && targetEntity.isRemoved())) {
+                return;
+            }
+            List<ServerPlayerEntity> online = new ArrayList<>(waiting.size());
+            for (ServerPlayerEntity member : waiting) {
+                if (!member.isDisconnected()) {
+                    online.add(member);
+                }
+            }
+            startSession(leader, online, dialogueId, loaded, targetEntity, mode, startNodeId);
+        });
+    }
 
-        // 获取起始节点
-        Dialogue.DialogueNode startNode = dialogue.getNodes().get("start");
-        if (startNode != null) {
-            String processedText = processVariables(startNode.getText(), player);
-            ServerNetworkHandler.sendDialogue(player, processedText, dialogue.getName(), startNode.getChoices());
+    /**
+     * 用已加载的脚本创建会话，并从起始节点开始求值
+     */
+    private void startSession(ServerPlayerEntity leader, Collection<ServerPlayerEntity> members, String dialogueId,
+            Dialogue dialogue, Entity targetEntity, DialogueState.GroupMode mode, String startNodeId) {
+        // 成员先退出各自正在进行的对话
+        List<ServerPlayerEntity> viewers = new ArrayList<>(members);
+        if (!viewers.contains(leader)) {
+            viewers.add(0, leader);
+        }
+        for (ServerPlayerEntity member : viewers) {
+            leaveSession(member);
         }
 
-        // 禁用村民的AI
-        if (targetEntity instanceof VillagerEntity) {
-            VillagerEntity villager = (VillagerEntity) targetEntity;
-            villager.setAiDisabled(true);
-            villager.setInvulnerable(true);
+        // 创建对话状态
+        DialogueState state = new DialogueState(dialogueId, dialogue, leader, viewers, targetEntity, mode);
+        state.setCurrentNodeId(startNodeId);
+        for (ServerPlayerEntity member : state.getMembers()) {
+            playerStates.put(member.getUuid(), state);
         }
+
+        // 冻结目标NPC并固定脚本
+        npcLocks.acquire(targetEntity);
+        library.pin(dialogueId);
+        DialogueSessionEvent.emit(dialogueId, DialogueSessionEvent.START, state.getMembers().size());
+        recorder.recordStart(state);
+
+        // 从起始节点开始求值
+        evaluate(state);
     }
 
     /**
-     * 处理下一个对话节点
+     * 每个服务器刻结束时调用，推进定时器，继续处理因超出预算而让出的会话，并执行本刻排队的节点动作
      */
-    public void processNextNode(PlayerEntity player) {
-        DialogueState state = playerStates.get(player.getUuid());
-        if (state == null) {
-            endDialogue(player);
-            return;
+    public void tick(MinecraftServer server) {
+        tickBudget = MAX_STEPS_PER_TICK;
+        timers.advance();
+
+        int pending = deferredSessions.size();
+        for (int i = 0; i < pending && tickBudget > 0; i++) {
+            DialogueState state = deferredSessions.poll();
+            state.setDeferred(false);
+            if (!state.getMembers().isEmpty()) {
+                evaluate(state);
+            }
         }
 
-        Dialogue dialogue = dialogues.get(state.getDialogueId());
+        actionExecutor.flush(server);
+        analytics.tick();
+    }
+
+    /**
+     * 从会话当前节点开始迭代求值，跳过条件不满足的节点，直到显示一个节点或对话结束。
+     * 每次调用和每刻的步数都有预算，超出时让出到下一刻；同一条求值路径重复访问节点时中止会话。
+     */
+    private void evaluate(DialogueState state) {
+        Dialogue dialogue = state.getDialogue();
         if (dialogue == null) {
-            endDialogue(player);
+            finishSession(state);
             return;
         }
 
-        Dialogue.DialogueNode node = dialogue.getNodes().get(state.getCurrentNodeId());
-        if (node == null) {
-            endDialogue(player);
-            return;
-        }
+        // 群体对话以队长的视角处理条件和变量
+        ServerPlayerEntity leader = state.getPlayer();
+        Set<String> path = state.getEvaluationPath();
+        int steps = 0;
 
-        // 处理条件判断
-        if (node.getCondition() != null && !evaluateCondition(node.getCondition(), player)) {
-            if (node.getFallbackNodeId() != null) {
+        while (true) {
+            if (steps >= MAX_STEPS_PER_CALL || tickBudget <= 0) {
+                defer(state);
+                return;
+            }
+
+            String nodeId = state.getCurrentNodeId();
+            Dialogue.DialogueNode node = nodeId != null ? dialogue.getNodes().get(nodeId) : null;
+            if (node == null) {
+                finishSession(state);
+                return;
+            }
+
+            if (!path.add(nodeId)) {
+                abortSession(state, "条件节点形成循环", nodeId);
+                return;
+            }
+            if (path.size() > MAX_STEPS_PER_EVALUATION) {
+                abortSession(state, "条件节点链过长", nodeId);
+                return;
+            }
+            steps++;
+            tickBudget--;
+
+            NodeAdvanceEvent event = new NodeAdvanceEvent();
+            event.begin();
+
+            // 处理条件判断
+            long conditionStart = event.isEnabled() ? System.nanoTime() : 0L;
+            boolean passed = node.getCondition() == null || evaluateCondition(node, leader);
+            // 提交前才按耗时阈值判断是否记录，这里只要事件开启就填写
+            if (event.isEnabled()) {
+                event.conditionTime = System.nanoTime() - conditionStart;
+                event.conditionPassed = passed;
+            }
+
+            if (!passed) {
+                commitNodeEvent(event, state, nodeId);
+                if (node.getFallbackNodeId() == null) {
+                    finishSession(state);
+                    return;
+                }
                 state.setCurrentNodeId(node.getFallbackNodeId());
-                processNextNode(player);
-            } else {
-                endDialogue(player);
+                continue;
+            }
+
+            // 跳过已读模式下直接经过已读的无选项节点，不发送内容，节点动作与显示时同样执行（恢复的节点除外）
+            if (canSkip(state, dialogue, node, path)) {
+                if (state.shouldRunActions(nodeId)) {
+                    actionExecutor.queue(dialogue, state.getDialogueId(), state.getMembers(), node.getActions());
+                }
+                commitNodeEvent(event, state, nodeId);
+                state.setCurrentNodeId(node.getNextNodeId());
+                continue;
             }
+
+            path.clear();
+            showNode(state, dialogue, node);
+            commitNodeEvent(event, state, nodeId);
             return;
         }
+    }
 
-        // 显示对话文本
-        String processedText = processVariables(node.getText(), player);
+    /**
+     * 所有成员都开启了跳过已读且都读过该节点，节点没有选项并且有下一个节点时可以跳过。
+     * 下一个节点已在本次求值路径中（无选项节点循环）或路径即将超长时停下显示，而不是中止会话
+     */
+    private boolean canSkip(DialogueState state, Dialogue dialogue, Dialogue.DialogueNode node, Set<String> path) {
+        String nextNodeId = node.getNextNodeId();
+        if (!node.getChoices().isEmpty() || nextNodeId == null || !dialogue.getNodes().containsKey(nextNodeId)
+                || path.contains(nextNodeId) || path.size() >= MAX_STEPS_PER_EVALUATION - 1) {
+            return false;
+        }
+        for (ServerPlayerEntity member : state.getMembers()) {
+            SeenNodes seen = PlayerVariables.of(member).getSeenNodes();
+            if (!seen.isSkipping() || !seen.contains(state.getDialogueId(), dialogue, node)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        // 检查是否是玩家在说话
-        boolean isPlayerSpeaking = processedText.contains("{player_name}");
+    private static void commitNodeEvent(NodeAdvanceEvent event, DialogueState state, String nodeId) {
+        if (event.shouldCommit()) {
+            event.dialogue = state.getDialogueId();
+            event.node = nodeId;
+            event.commit();
+        }
+    }
 
-        // 发送对话UI到客户端
-        if (player instanceof ServerPlayerEntity) {
-            ServerNetworkHandler.sendDialogue((ServerPlayerEntity) player, processedText, dialogue.getName(),
-                    node.getChoices());
+    /**
+     * 向会话成员显示节点
+     */
+    private void showNode(DialogueState state, Dialogue dialogue, Dialogue.DialogueNode node) {
+        // 显示对话文本
+        VariableProcessingEvent variableEvent = new VariableProcessingEvent();
+        variableEvent.begin();
+        // 带标记的文本在加载时已编译，这里只对各片段做变量替换
+        ServerPlayerEntity leader = state.getPlayer();
+        RichText processedText = node.getRichText() != null
+                ? node.getRichText().map(text -> processVariables(text, leader))
+                : RichText.plain(processVariables(node.getText(), leader));
+        if (variableEvent.shouldCommit()) {
+            variableEvent.dialogue = state.getDialogueId();
+            variableEvent.node = node.getId();
+            int textLength = 0;
+            for (RichText.Span span : processedText.getSpans()) {
+                textLength += span.getText().length();
+            }
+            variableEvent.textLength = textLength;
+            variableEvent.commit();
         }
 
+        // 发送对话UI到客户端，[speaker] 标记的说话人代替对话名称显示在标题位置
+        String title = processedText.getSpeaker() != null
+                ? processVariables(processedText.getSpeaker(), leader) : dialogue.getName();
+        PacketByteBuf body = ServerNetworkHandler.encodeDialogue(processedText, title, node.getPortraits(),
+                node.getChoices());
+        recorder.recordDialogue(state.getMembers(), body);
+        transport.sendDialogue(state.getMembers(), body);
+
         // 播放声音
-        if (node.getSound() != null && !node.getSound().isEmpty() && player instanceof ServerPlayerEntity) {
-            ServerNetworkHandler.playSound((ServerPlayerEntity) player, node.getSound());
+        if (node.getSound() != null && !node.getSound().isEmpty()) {
+            transport.playSound(state.getMembers(), node.getSound());
+        }
+
+        // 节点动作在本刻结束时统一执行，恢复的节点在断线前已经执行过
+        if (state.shouldRunActions(state.getCurrentNodeId())) {
+            actionExecutor.queue(dialogue, state.getDialogueId(), state.getMembers(), node.getActions());
         }
 
-        // 如果没有选项，自动进入下一节点
+        for (ServerPlayerEntity member : state.getMembers()) {
+            PlayerVariables.of(member).getSeenNodes().add(state.getDialogueId(), dialogue, node);
+        }
+
+        recordNodeTime(state);
+        state.setShownNode(state.getCurrentNodeId(), System.nanoTime());
+        analytics.recordView(state.getDialogueId(), state.getCurrentNodeId(), node.getChoices().size(),
+                state.getMembers().size());
+
+        scheduleNodeTimer(state, node);
+        touch(state);
+    }
+
+    /**
+     * 为刚显示的节点设置自动推进或选项限时定时器
+     */
+    private void scheduleNodeTimer(DialogueState state, Dialogue.DialogueNode node) {
+        String nodeId = state.getCurrentNodeId();
+        TimingWheel.Timer timer = null;
         if (node.getChoices().isEmpty()) {
-            if (node.getNextNodeId() != null) {
-                state.setCurrentNodeId(node.getNextNodeId());
-                // 不立即处理下一节点，等待玩家点击继续
-            } else {
-                // 对话结束
-                recordDialogueCompleted(player.getUuid(), state.getDialogueId());
-                endDialogue(player);
+            if (node.getAutoAdvanceTicks() > 0) {
+                timer = timers.schedule(node.getAutoAdvanceTicks(), () -> onNodeTimer(state, nodeId, -1));
             }
+        } else if (node.getChoiceTimeout() > 0) {
+            int defaultChoice = node.getDefaultChoice() >= 0 && node.getDefaultChoice() < node.getChoices().size()
+                    ? node.getDefaultChoice() : 0;
+            timer = timers.schedule(node.getChoiceTimeout(), () -> onNodeTimer(state, nodeId, defaultChoice));
         }
+        state.setNodeTimer(timer);
+    }
+
+    /**
+     * 节点定时器到期：无选项节点自动推进，选项节点选择默认选项。会话已经离开该节点时忽略
+     */
+    private void onNodeTimer(DialogueState state, String nodeId, int choiceIndex) {
+        if (state.getMembers().isEmpty() || state.isDeferred() || !nodeId.equals(state.getCurrentNodeId())) {
+            return;
+        }
+        Dialogue dialogue = state.getDialogue();
+        Dialogue.DialogueNode node = dialogue != null ? dialogue.getNodes().get(nodeId) : null;
+        if (node == null) {
+            finishSession(state);
+            return;
+        }
+        if (choiceIndex < 0) {
+            advance(state, node);
+        } else {
+            selectChoice(state, node, choiceIndex);
+        }
+    }
+
+    /**
+     * 统计会话在上一个显示的节点上停留的时间
+     */
+    private void recordNodeTime(DialogueState state) {
+        if (state.getShownNodeId() != null) {
+            analytics.recordTime(state.getDialogueId(), state.getShownNodeId(), System.nanoTime() - state.getShownAt());
+            state.setShownNode(null, 0L);
+        }
+    }
+
+    /**
+     * 重新开始会话的空闲计时
+     */
+    private void touch(DialogueState state) {
+        if (SESSION_IDLE_TICKS > 0) {
+            state.setIdleTimer(timers.schedule(SESSION_IDLE_TICKS, () -> {
+                if (!state.getMembers().isEmpty()) {
+                    LOGGER.info("对话 {} 长时间无操作，已结束", state.getDialogueId());
+                    finishSession(state);
+                }
+            }));
+        }
+    }
+
+    /**
+     * 将会话推迟到下一刻继续求值
+     */
+    private void defer(DialogueState state) {
+        if (!state.isDeferred()) {
+            state.setDeferred(true);
+            deferredSessions.add(state);
+        }
+    }
+
+    /**
+     * 脚本出错时中止会话并输出诊断信息
+     */
+    private void abortSession(DialogueState state, String reason, String nodeId) {
+        LOGGER.error("中止对话 {}：{}，节点 {}，求值路径 {}", state.getDialogueId(), reason, nodeId,
+                state.getEvaluationPath());
+        finishSession(state);
     }
 
     /**
      * 处理选项选择
      */
-    public void handleChoice(PlayerEntity player, int choiceIndex) {
+    public void handleChoice(ServerPlayerEntity player, int choiceIndex) {
         DialogueState state = playerStates.get(player.getUuid());
         if (state == null) {
             endDialogue(player);
             return;
         }
+        if (state.isDeferred()) {
+            return;
+        }
+        touch(state);
 
-        Dialogue dialogue = dialogues.get(state.getDialogueId());
+        Dialogue dialogue = state.getDialogue();
         if (dialogue == null) {
-            endDialogue(player);
+            finishSession(state);
             return;
         }
 
         Dialogue.DialogueNode node = dialogue.getNodes().get(state.getCurrentNodeId());
-        if (node == null || node.getChoices().isEmpty() || choiceIndex < 0 || choiceIndex >= node.getChoices().size()) {
-            endDialogue(player);
+        if (node == null) {
+            finishSession(state);
+            return;
+        }
+
+        // 投票时忽略无效的选项序号，否则一名成员的无效投票可能胜出并结束所有人的对话
+        if (state.getMode() == DialogueState.GroupMode.VOTE
+                && (choiceIndex < 0 || choiceIndex >= node.getChoices().size())) {
+            return;
+        }
+
+        Integer decided = resolveInput(state, player, choiceIndex);
+        if (decided == null) {
             return;
         }
+        selectChoice(state, node, decided);
+    }
+
+    /**
+     * 处理选项分页请求：按筛选文本（不区分大小写）过滤正在显示节点的选项，只编码请求的那一页发回该玩家。
+     * 不计为会话活动，也不写入录制，回放结果不受翻页影响。
+     * 客户端在收到回复前不会再次请求，因此没有可显示的选项时也回复一个空页
+     */
+    public void handleChoicePage(ServerPlayerEntity player, int offset, int count, String filter) {
+        DialogueState state = playerStates.get(player.getUuid());
+        Dialogue.DialogueNode node = null;
+        if (state != null && !state.isDeferred() && state.getShownNodeId() != null) {
+            Dialogue dialogue = state.getDialogue();
+            node = dialogue != null ? dialogue.getNodes().get(state.getShownNodeId()) : null;
+        }
 
+        List<Dialogue.Choice> choices = node != null && offset >= 0 ? node.getChoices() : List.of();
+        String needle = filter.toLowerCase(Locale.ROOT);
+        int[] window = new int[Math.max(0, Math.min(count, ServerNetworkHandler.MAX_CHOICE_PAGE_SIZE))];
+        int found = 0;
+        int total = 0;
+        for (int i = 0; i < choices.size(); i++) {
+            if (!needle.isEmpty()) {
+                String choiceText = choices.get(i).getText();
+                if (choiceText == null || !choiceText.toLowerCase(Locale.ROOT).contains(needle)) {
+                    continue;
+                }
+            }
+            if (total >= offset && found < window.length) {
+                window[found++] = i;
+            }
+            total++;
+        }
+        transport.sendChoicePage(player,
+                ServerNetworkHandler.encodeChoicePage(offset, filter, total, window, found, choices));
+    }
+
+    /**
+     * 选择当前节点的选项并进入其目标节点，选项无效时结束会话
+     */
+    private void selectChoice(DialogueState state, Dialogue.DialogueNode node, int choiceIndex) {
+        if (node.getChoices().isEmpty() || choiceIndex < 0 || choiceIndex >= node.getChoices().size()) {
+            finishSession(state);
+            return;
+        }
+
+        analytics.recordChoice(state.getDialogueId(), state.getCurrentNodeId(), choiceIndex, node.getChoices().size());
         Dialogue.Choice choice = node.getChoices().get(choiceIndex);
         state.setCurrentNodeId(choice.getNextNodeId());
-        processNextNode(player);
+        evaluate(state);
+    }
+
+    /**
+     * 根据会话模式处理成员输入，返回最终生效的输入，尚未决定时返回 null
+     */
+    private Integer resolveInput(DialogueState state, ServerPlayerEntity player, int input) {
+        if (!state.isGroup()) {
+            return input;
+        }
+        if (state.getMode() == DialogueState.GroupMode.VOTE) {
+            return state.castVote(player, input);
+        }
+        return player == state.getPlayer() ? input : null;
     }
 
     /**
-     * 结束对话
+     * 结束对话（对群体对话而言，仅该玩家退出）
      */
-    public void endDialogue(PlayerEntity player) {
+    public void endDialogue(ServerPlayerEntity player) {
         DialogueState state = playerStates.get(player.getUuid());
-        if (state != null && state.getTargetEntity() instanceof VillagerEntity) {
-            VillagerEntity villager = (VillagerEntity) state.getTargetEntity();
-            villager.setAiDisabled(false);
-            villager.setInvulnerable(false);
+        if (state != null && state.getShownNodeId() != null) {
+            analytics.recordAbort(state.getDialogueId(), state.getShownNodeId());
         }
-        
-        playerStates.remove(player.getUuid());
+        leaveSession(player);
         // 关闭对话UI
-        if (player instanceof ServerPlayerEntity) {
-            ServerNetworkHandler.closeDialogue((ServerPlayerEntity) player);
+        closeDialogue(List.of(player));
+    }
+
+    /**
+     * 玩家断开连接时退出所在会话，单人对话保存快照以便下次登录时恢复
+     */
+    public void handleDisconnect(ServerPlayerEntity player) {
+        DialogueState state = playerStates.get(player.getUuid());
+        if (state != null && !state.isGroup()) {
+            // 保存玩家最后看到的节点；让出中的会话当前节点尚未显示，恢复时从看到的节点重新开始
+            Dialogue dialogue = state.getDialogue();
+            if (dialogue != null && state.getShownNodeId() != null) {
+                sessionStore.saveAsync(player.getUuid(), new SessionSnapshot(state.getDialogueId(),
+                        dialogue.getVersionHash(), state.getShownNodeId()));
+            }
+        }
+        leaveSession(player);
+    }
+
+    /**
+     * 玩家登录时异步读取快照，读取完成后在主线程恢复对话
+     */
+    public void handleJoin(ServerPlayerEntity player, MinecraftServer server) {
+        sessionStore.takeAsync(player.getUuid()).thenAcceptAsync(snapshot -> {
+            if (snapshot != null && !player.isDisconnected()) {
+                library.load(snapshot.getDialogueId(), server)
+                        .thenAccept(dialogue -> resumeSession(player, snapshot, dialogue));
+            }
+        }, server);
+    }
+
+    /**
+     * 从快照恢复对话，脚本已修改或已删除时丢弃快照
+     */
+    private void resumeSession(ServerPlayerEntity player, SessionSnapshot snapshot, Dialogue dialogue) {
+        if (player.isDisconnected() || playerStates.containsKey(player.getUuid())) {
+            return;
+        }
+        if (dialogue == null || dialogue.getVersionHash() != snapshot.getScriptHash()
+                || !dialogue.getNodes().containsKey(snapshot.getNodeId())) {
+            LOGGER.info("丢弃过期的对话快照: {} ({})", snapshot.getDialogueId(), player.getName().getString());
+            return;
+        }
+
+        DialogueState state = new DialogueState(snapshot.getDialogueId(), dialogue, player, null);
+        state.setCurrentNodeId(snapshot.getNodeId());
+        state.setRestoredNodeId(snapshot.getNodeId());
+        playerStates.put(player.getUuid(), state);
+        library.pin(snapshot.getDialogueId());
+        DialogueSessionEvent.emit(snapshot.getDialogueId(), DialogueSessionEvent.RESUME, 1);
+        recorder.recordStart(state);
+        evaluate(state);
+    }
+
+    /**
+     * 服务器启动时打开快照存储和统计导出
+     */
+    public void onServerStarted(MinecraftServer server) {
+        sessionStore.open(server);
+        analytics.open(server);
+    }
+
+    /**
+     * 服务器停止时（所有玩家都已断开）等待快照和统计写入完成
+     */
+    public void onServerStopped() {
+        recorder.stop();
+        sessionStore.close();
+        analytics.close();
+    }
+
+    /**
+     * 玩家退出所在会话，会话没有成员时释放NPC和脚本
+     */
+    private void leaveSession(ServerPlayerEntity player) {
+        DialogueState state = playerStates.remove(player.getUuid());
+        if (state == null) {
+            return;
+        }
+        state.removeMember(player);
+        if (state.getMembers().isEmpty()) {
+            releaseSession(state);
+            return;
         }
+        // 投票模式下人数减少后，剩余成员已投的票可能已经足以决定
+        if (state.getMode() == DialogueState.GroupMode.VOTE && !state.isDeferred()) {
+            Integer decided = state.tallyVotes();
+            if (decided != null) {
+                applyVote(state, decided);
+            }
+        }
+    }
+
+    /**
+     * 执行投票结果：-1 为继续，其余为选项序号
+     */
+    private void applyVote(DialogueState state, int decided) {
+        Dialogue dialogue = state.getDialogue();
+        Dialogue.DialogueNode node = dialogue != null ? dialogue.getNodes().get(state.getCurrentNodeId()) : null;
+        if (node == null) {
+            finishSession(state);
+        } else if (decided == -1) {
+            if (node.getChoices().isEmpty()) {
+                advance(state, node);
+            }
+        } else {
+            selectChoice(state, node, decided);
+        }
+    }
+
+    /**
+     * 结束整个会话并关闭所有成员的对话UI
+     */
+    private void finishSession(DialogueState state) {
+        if (state.getMembers().isEmpty()) {
+            return;
+        }
+        List<ServerPlayerEntity> members = List.copyOf(state.getMembers());
+        for (ServerPlayerEntity member : members) {
+            playerStates.remove(member.getUuid(), state);
+        }
+        state.getMembers().clear();
+        releaseSession(state);
+        closeDialogue(members);
+    }
+
+    private void closeDialogue(List<ServerPlayerEntity> viewers) {
+        recorder.recordClose(viewers);
+        transport.closeDialogue(viewers);
+    }
+
+    /**
+     * 释放会话占用的NPC锁和脚本固定
+     */
+    private void releaseSession(DialogueState state) {
+        state.cancelTimers();
+        recordNodeTime(state);
+        npcLocks.release(state.getTargetEntity());
+        library.unpin(state.getDialogueId());
+        DialogueSessionEvent.emit(state.getDialogueId(), DialogueSessionEvent.END, 0);
     }
 
     /**
      * 处理变量替换
      */
-    private String processVariables(String text, PlayerEntity player) {
+    private String processVariables(String text, ServerPlayerEntity player) {
         if (text == null) {
             return "";
         }
+        if (text.indexOf('{') < 0) {
+            return text;
+        }
 
         // 替换玩家名称
         text = text.replace("{player_name}", player.getName().getString());
@@ -320,11 +832,39 @@ public class DialogueManager {
         // 替换手持物品
         text = text.replace("{held_item}", player.getMainHandStack().getItem().getName().getString());
 
-        // TODO: 添加更多变量处理
+        // 替换玩家变量 {var:名称}
+        int start = text.indexOf("{var:");
+        if (start >= 0) {
+            PlayerVariables variables = PlayerVariables.of(player);
+            StringBuilder builder = new StringBuilder(text.length());
+            int from = 0;
+            while (start >= 0) {
+                int end = text.indexOf('}', start);
+                if (end < 0) {
+                    break;
+                }
+                int variableId = VariableIds.find(text.substring(start + "{var:".length(), end));
+                builder.append(text, from, start).append(variableId >= 0 ? variables.get(variableId) : 0);
+                from = end + 1;
+                start = text.indexOf("{var:", from);
+            }
+            text = builder.append(text, from, text.length()).toString();
+        }
 
         return text;
     }
 
+    /**
+     * 评估节点条件，变量条件在加载时已编译
+     */
+    private boolean evaluateCondition(Dialogue.DialogueNode node, ServerPlayerEntity player) {
+        VariableCondition compiled = node.getVariableCondition();
+        if (compiled != null) {
+            return PlayerVariables.of(player).test(compiled);
+        }
+        return evaluateCondition(node.getCondition(), player);
+    }
+
     /**
      * 评估条件
      */
@@ -377,60 +917,38 @@ public class DialogueManager {
         return completedDialogues.contains(dialogueId);
     }
 
-    public void processChoice(ServerPlayerEntity player, int choiceIndex) {
-        DialogueState state = playerStates.get(player.getUuid());
-        if (state == null) {
-            return;
-        }
-
-        Dialogue.DialogueNode currentNode = dialogues.get(state.getDialogueId()).getNodes()
-                .get(state.getCurrentNodeId());
-        if (currentNode == null || currentNode.getChoices() == null || choiceIndex >= currentNode.getChoices().size()) {
-            return;
-        }
-
-        Dialogue.Choice choice = currentNode.getChoices().get(choiceIndex);
-        String nextNodeId = choice.getNextNodeId();
-
-        if (nextNodeId != null && !nextNodeId.isEmpty()) {
-            Dialogue.DialogueNode nextNode = dialogues.get(state.getDialogueId()).getNodes().get(nextNodeId);
-            if (nextNode != null) {
-                state.setCurrentNodeId(nextNodeId);
-                String processedText = processVariables(nextNode.getText(), player);
-                ServerNetworkHandler.sendDialogue(player, processedText, dialogues.get(state.getDialogueId()).getName(),
-                        nextNode.getChoices());
-            }
-        } else {
-            // 如果没有下一个节点，结束对话
-            playerStates.remove(player.getUuid());
-            ServerNetworkHandler.closeDialogue(player);
-        }
-    }
-
+    /**
+     * 继续对话，进入当前节点的下一个节点
+     */
     public void continueDialogue(ServerPlayerEntity player) {
         DialogueState state = getPlayerDialogueState(player.getUuid());
-        if (state == null) return;
+        if (state == null || state.isDeferred()) return;
+        touch(state);
 
-        Dialogue dialogue = dialogues.get(state.getDialogueId());
+        Dialogue dialogue = state.getDialogue();
         if (dialogue == null) return;
 
         Dialogue.DialogueNode currentNode = dialogue.getNodes().get(state.getCurrentNodeId());
-        if (currentNode == null) return;
+        if (currentNode == null || !currentNode.getChoices().isEmpty()) return;
 
+        if (resolveInput(state, player, -1) == null) return;
+
+        advance(state, currentNode);
+    }
+
+    /**
+     * 从无选项节点推进到下一个节点，没有下一个节点时完成对话
+     */
+    private void advance(DialogueState state, Dialogue.DialogueNode currentNode) {
         // 检查是否有下一个节点
         if (currentNode.getNextNodeId() != null && !currentNode.getNextNodeId().isEmpty()) {
             // 继续到下一个节点
             state.setCurrentNodeId(currentNode.getNextNodeId());
-            Dialogue.DialogueNode nextNode = dialogue.getNodes().get(currentNode.getNextNodeId());
-            if (nextNode != null) {
-                String processedText = processVariables(nextNode.getText(), player);
-                ServerNetworkHandler.sendDialogue(player, processedText, dialogues.get(state.getDialogueId()).getName(),
-                        nextNode.getChoices());
-            }
+            evaluate(state);
         } else {
             // 对话结束
-            recordDialogueCompleted(player.getUuid(), state.getDialogueId());
-            endDialogue(player);
+            recordDialogueCompleted(state.getPlayer().getUuid(), state.getDialogueId());
+            finishSession(state);
         }
     }
 
@@ -0,0 +1,127 @@
+package com.visualnovel.config;
+
+import com.google.gson.JsonParseException;
+import com.visualnovel.VisualNovel;
+import com.visualnovel.dialogue.Dialogue;
+import com.visualnovel.network.DialogueCompression;
+import com.visualnovel.network.ServerNetworkHandler;
+import net.fabricmc.fabric.api.resource.SimpleResourceReloadListener;
+import net.minecraft.resource.Resource;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.profiler.Profiler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * 从数据包加载对话脚本：data/<命名空间>/visualnovel/dialogues/*.json，
+ * 脚本ID为 命名空间:相对路径（不含扩展名）。
+ * 读取、解析和编译在重载线程池上完成，只有替换脚本表的一步在服务器线程上执行。
+ * 启用对话压缩时，同样在准备阶段从数据包脚本和配置目录脚本中训练压缩字典。
+ */
+public class DialogueReloadListener implements SimpleResourceReloadListener<DialogueReloadListener.Prepared> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DialogueReloadListener.class);
+    private static final Identifier ID = new Identifier(VisualNovel.MOD_ID, "dialogues");
+    private static final String DIRECTORY = "visualnovel/dialogues";
+    private static final String EXTENSION = ".json";
+    // 训练字典时最多读取的配置目录脚本大小
+    private static final long MAX_SAMPLE_BYTES = 4L << 20;
+
+    private final DialogueLibrary library;
+
+    public DialogueReloadListener(DialogueLibrary library) {
+        this.library = library;
+    }
+
+    @Override
+    public Identifier getFabricId() {
+        return ID;
+    }
+
+    @Override
+    public CompletableFuture<Prepared> load(ResourceManager manager, Profiler profiler,
+            Executor executor) {
+        // 索引只在服务器线程上修改，交给后台线程前先取快照
+        List<Path> configScripts = ServerNetworkHandler.COMPRESSION_ENABLED ? library.configScriptPaths() : List.of();
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, Dialogue> scripts = new HashMap<>();
+            Map<Identifier, Resource> resources = manager.findResources(DIRECTORY,
+                    id -> id.getPath().endsWith(EXTENSION));
+
+            for (Map.Entry<Identifier, Resource> entry : resources.entrySet()) {
+                Identifier resourceId = entry.getKey();
+                String path = resourceId.getPath();
+                String dialogueId = resourceId.getNamespace() + ":"
+                        + path.substring(DIRECTORY.length() + 1, path.length() - EXTENSION.length());
+                try (InputStream in = entry.getValue().getInputStream()) {
+                    Dialogue dialogue = library.parse(in.readAllBytes());
+                    if (dialogue != null) {
+                        scripts.put(dialogueId, dialogue);
+                    }
+                } catch (IOException | JsonParseException e) {
+                    LOGGER.error("加载数据包对话脚本失败: " + resourceId, e);
+                }
+            }
+
+            byte[] dictionary = null;
+            if (ServerNetworkHandler.COMPRESSION_ENABLED) {
+                List<Dialogue> corpus = new ArrayList<>(scripts.values());
+                corpus.addAll(library.sampleConfigScripts(configScripts, MAX_SAMPLE_BYTES));
+                dictionary = DialogueCompression.trainDictionary(corpusTexts(corpus),
+                        DialogueCompression.DEFAULT_DICTIONARY_SIZE);
+            }
+            return new Prepared(scripts, dictionary);
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> apply(Prepared prepared, ResourceManager manager, Profiler profiler,
+            Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            library.replaceDatapackScripts(prepared.scripts);
+            LOGGER.info("已从数据包加载 {} 个对话脚本", prepared.scripts.size());
+            if (prepared.dictionary != null) {
+                ServerNetworkHandler.installDictionary(prepared.dictionary);
+            }
+        }, executor);
+    }
+
+    /**
+     * 收集所有节点和选项的文本
+     */
+    private static List<String> corpusTexts(List<Dialogue> dialogues) {
+        List<String> texts = new ArrayList<>();
+        for (Dialogue dialogue : dialogues) {
+            for (Dialogue.DialogueNode node : dialogue.getNodes().values()) {
+                texts.add(node.getText());
+                for (Dialogue.Choice choice : node.getChoices()) {
+                    texts.add(choice.getText());
+                }
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * 准备阶段的结果：编译好的脚本和训练出的字典（未启用压缩时为 null）
+     */
+    public static final class Prepared {
+        private final Map<String, Dialogue> scripts;
+        private final byte[] dictionary;
+
+        private Prepared(Map<String, Dialogue> scripts, byte[] dictionary) {
+            this.scripts = scripts;
+            this.dictionary = dictionary;
+        }
+    }
+}
@@ -1,29 +1,72 @@
 package com.visualnovel.config;
 
+import com.visualnovel.dialogue.Dialogue;
 import net.minecraft.entity.Entity;
-import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 /**
- * 对话状态类，用于存储玩家当前对话的状态
+ * 对话状态类，用于存储一次对话会话的状态。
+ * 单人对话只有一个成员；群体对话的所有成员共享同一个状态，由队长或投票推进。
  */
 public class DialogueState {
     private final String dialogueId;
-    private final PlayerEntity player;
+    // 会话开始时的脚本版本，脚本重新加载后进行中的会话仍使用它
+    private final Dialogue dialogue;
+    private ServerPlayerEntity player;
     private String currentNodeId;
     private final Entity targetEntity;
+    private final GroupMode mode;
+    private final List<ServerPlayerEntity> members;
+    private final Map<UUID, Integer> votes;
+    private final Set<String> evaluationPath;
+    private boolean deferred;
+    private TimingWheel.Timer nodeTimer;
+    private TimingWheel.Timer idleTimer;
+    private String shownNodeId;
+    private long shownAt;
+    // 从快照恢复的节点，其动作在断线前已经执行过
+    private String restoredNodeId;
+    
+    public DialogueState(String dialogueId, Dialogue dialogue, ServerPlayerEntity player, Entity targetEntity) {
+        this(dialogueId, dialogue, player, List.of(player), targetEntity, GroupMode.LEADER);
+    }
     
-    public DialogueState(String dialogueId, PlayerEntity player, Entity targetEntity) {
+    public DialogueState(String dialogueId, Dialogue dialogue, ServerPlayerEntity leader,
+            List<ServerPlayerEntity> members, Entity targetEntity, GroupMode mode) {
         this.dialogueId = dialogueId;
-        this.player = player;
+        this.dialogue = dialogue;
+        this.player = leader;
         this.targetEntity = targetEntity;
+        this.mode = mode;
+        this.members = new ArrayList<>(members);
+        this.votes = new HashMap<>();
+        this.evaluationPath = new LinkedHashSet<>();
         this.currentNodeId = "start";
+        if (!this.members.contains(leader)) {
+            this.members.add(0, leader);
+        }
     }
     
     public String getDialogueId() {
         return dialogueId;
     }
     
-    public PlayerEntity getPlayer() {
+    public Dialogue getDialogue() {
+        return dialogue;
+    }
+    
+    /**
+     * 获取会话的主导玩家（单人对话即为该玩家本身）
+     */
+    public ServerPlayerEntity getPlayer() {
         return player;
     }
     
@@ -33,9 +76,151 @@ public class DialogueState {
     
     public void setCurrentNodeId(String currentNodeId) {
         this.currentNodeId = currentNodeId;
+        this.votes.clear();
     }
     
     public Entity getTargetEntity() {
         return targetEntity;
     }
-} 
\ No newline at end of file
+    
+    public GroupMode getMode() {
+        return mode;
+    }
+    
+    public List<ServerPlayerEntity> getMembers() {
+        return members;
+    }
+    
+    public boolean isGroup() {
+        return members.size() > 1;
+    }
+    
+    /**
+     * 获取本次求值已经经过的节点，用于检测条件节点循环
+     */
+    public Set<String> getEvaluationPath() {
+        return evaluationPath;
+    }
+    
+    /**
+     * 会话是否因超出求值预算而等待下一刻继续
+     */
+    public boolean isDeferred() {
+        return deferred;
+    }
+    
+    public void setDeferred(boolean deferred) {
+        this.deferred = deferred;
+    }
+    
+    /**
+     * 获取最近显示给成员的节点，用于统计停留时间
+     */
+    public String getShownNodeId() {
+        return shownNodeId;
+    }
+    
+    public long getShownAt() {
+        return shownAt;
+    }
+    
+    public void setShownNode(String nodeId, long time) {
+        this.shownNodeId = nodeId;
+        this.shownAt = time;
+    }
+    
+    public void setRestoredNodeId(String restoredNodeId) {
+        this.restoredNodeId = restoredNodeId;
+    }
+    
+    /**
+     * 节点的动作是否需要执行：恢复会话后经过的第一个节点如果就是快照中的节点，则不再执行
+     */
+    public boolean shouldRunActions(String nodeId) {
+        String restored = restoredNodeId;
+        restoredNodeId = null;
+        return !nodeId.equals(restored);
+    }
+    
+    /**
+     * 设置当前节点的自动推进或限时定时器，取消之前的定时器
+     */
+    public void setNodeTimer(TimingWheel.Timer timer) {
+        if (nodeTimer != null) {
+            nodeTimer.cancel();
+        }
+        nodeTimer = timer;
+    }
+    
+    /**
+     * 设置会话的空闲超时定时器，取消之前的定时器
+     */
+    public void setIdleTimer(TimingWheel.Timer timer) {
+        if (idleTimer != null) {
+            idleTimer.cancel();
+        }
+        idleTimer = timer;
+    }
+    
+    /**
+     * 取消会话的所有定时器
+     */
+    public void cancelTimers() {
+        setNodeTimer(null);
+        setIdleTimer(null);
+    }
+    
+    /**
+     * 移除成员，队长离开时由下一位成员接任
+     */
+    public void removeMember(ServerPlayerEntity member) {
+        members.remove(member);
+        votes.remove(member.getUuid());
+        if (member == player && !members.isEmpty()) {
+            player = members.get(0);
+        }
+    }
+    
+    /**
+     * 记录成员的投票（-1 表示继续），返回达成多数的选项，尚未决定时返回 null
+     */
+    public Integer castVote(ServerPlayerEntity member, int choiceIndex) {
+        votes.put(member.getUuid(), choiceIndex);
+        return tallyVotes();
+    }
+    
+    /**
+     * 按现有投票重新计票（成员离开后人数变化），返回达成多数的选项，尚未决定时返回 null
+     */
+    public Integer tallyVotes() {
+        Map<Integer, Integer> tally = new HashMap<>();
+        for (Integer vote : votes.values()) {
+            tally.merge(vote, 1, Integer::sum);
+        }
+        Integer best = null;
+        int bestCount = 0;
+        for (Map.Entry<Integer, Integer> entry : tally.entrySet()) {
+            int count = entry.getValue();
+            if (count > bestCount || (count == bestCount && entry.getKey() < best)) {
+                best = entry.getKey();
+                bestCount = count;
+            }
+        }
+        
+        // 过半数或所有人都已投票时决定（平票取序号最小的选项）
+        if (bestCount * 2 > members.size() || votes.size() >= members.size()) {
+            return best;
+        }
+        return null;
+    }
+    
+    /**
+     * 群体对话的推进方式
+     */
+    public enum GroupMode {
+        /** 只有队长的输入有效 */
+        LEADER,
+        /** 成员投票，过半数决定 */
+        VOTE
+    }
+}
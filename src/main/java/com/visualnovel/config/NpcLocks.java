@@ -0,0 +1,62 @@
+package com.visualnovel.config;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.mob.MobEntity;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 对话中NPC的引用计数锁。
+ * 第一个会话开始时冻结NPC，最后一个会话结束时才恢复其原有的AI和无敌状态。
+ */
+public class NpcLocks {
+    private final Map<UUID, Lock> locks = new HashMap<>();
+
+    /**
+     * 为会话锁定NPC
+     */
+    public void acquire(Entity entity) {
+        if (!(entity instanceof MobEntity)) {
+            return;
+        }
+        MobEntity mob = (MobEntity) entity;
+        Lock lock = locks.get(mob.getUuid());
+        if (lock == null) {
+            lock = new Lock(mob.isAiDisabled(), mob.isInvulnerable());
+            locks.put(mob.getUuid(), lock);
+            mob.setAiDisabled(true);
+            mob.setInvulnerable(true);
+        }
+        lock.count++;
+    }
+
+    /**
+     * 会话结束时释放NPC
+     */
+    public void release(Entity entity) {
+        if (!(entity instanceof MobEntity)) {
+            return;
+        }
+        MobEntity mob = (MobEntity) entity;
+        Lock lock = locks.get(mob.getUuid());
+        if (lock == null || --lock.count > 0) {
+            return;
+        }
+        locks.remove(mob.getUuid());
+        mob.setAiDisabled(lock.wasAiDisabled);
+        mob.setInvulnerable(lock.wasInvulnerable);
+    }
+
+    private static final class Lock {
+        private final boolean wasAiDisabled;
+        private final boolean wasInvulnerable;
+        private int count;
+
+        private Lock(boolean wasAiDisabled, boolean wasInvulnerable) {
+            this.wasAiDisabled = wasAiDisabled;
+            this.wasInvulnerable = wasInvulnerable;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.visualnovel.config;
+
+import com.visualnovel.dialogue.VariableCondition;
+import com.visualnovel.dialogue.VariableIds;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtString;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+/**
+ * 玩家的对话变量和标记，按变量ID保存在原始类型映射中，随玩家数据一起保存
+ */
+public class PlayerVariables {
+    private static final String NBT_KEY = "VisualNovel";
+
+    private final Int2IntOpenHashMap counters = new Int2IntOpenHashMap();
+    private final IntOpenHashSet flags = new IntOpenHashSet();
+    private final SeenNodes seenNodes = new SeenNodes();
+
+    /**
+     * 获取玩家的变量
+     */
+    public static PlayerVariables of(ServerPlayerEntity player) {
+        return ((Holder) player).visualnovel$getVariables();
+    }
+
+    /**
+     * 获取已读节点记录
+     */
+    public SeenNodes getSeenNodes() {
+        return seenNodes;
+    }
+
+    public int get(int variableId) {
+        return counters.get(variableId);
+    }
+
+    public void set(int variableId, int value) {
+        if (value == 0) {
+            counters.remove(variableId);
+        } else {
+            counters.put(variableId, value);
+        }
+    }
+
+    public void add(int variableId, int amount) {
+        set(variableId, counters.get(variableId) + amount);
+    }
+
+    public boolean hasFlag(int variableId) {
+        return flags.contains(variableId);
+    }
+
+    public void setFlag(int variableId, boolean value) {
+        if (value) {
+            flags.add(variableId);
+        } else {
+            flags.remove(variableId);
+        }
+    }
+
+    /**
+     * 判断编译后的变量条件
+     */
+    public boolean test(VariableCondition condition) {
+        switch (condition.getOperator()) {
+            case FLAG: return hasFlag(condition.getVariableId());
+            case NOT_FLAG: return !hasFlag(condition.getVariableId());
+            default: return condition.compare(get(condition.getVariableId()));
+        }
+    }
+
+    /**
+     * 从其他实例复制（玩家重生时）
+     */
+    public void copyFrom(PlayerVariables other) {
+        counters.clear();
+        counters.putAll(other.counters);
+        flags.clear();
+        flags.addAll(other.flags);
+        seenNodes.copyFrom(other.seenNodes);
+    }
+
+    public void writeNbt(NbtCompound nbt) {
+        if (counters.isEmpty() && flags.isEmpty() && seenNodes.isEmpty()) {
+            return;
+        }
+        NbtCompound data = new NbtCompound();
+        NbtCompound vars = new NbtCompound();
+        for (Int2IntMap.Entry entry : counters.int2IntEntrySet()) {
+            vars.putInt(VariableIds.name(entry.getIntKey()), entry.getIntValue());
+        }
+        NbtList flagList = new NbtList();
+        for (IntIterator iterator = flags.iterator(); iterator.hasNext(); ) {
+            flagList.add(NbtString.of(VariableIds.name(iterator.nextInt())));
+        }
+        data.put("Vars", vars);
+        data.put("Flags", flagList);
+        data.put("Seen", seenNodes.writeNbt());
+        nbt.put(NBT_KEY, data);
+    }
+
+    public void readNbt(NbtCompound nbt) {
+        counters.clear();
+        flags.clear();
+        if (!nbt.contains(NBT_KEY, NbtElement.COMPOUND_TYPE)) {
+            seenNodes.readNbt(new NbtCompound());
+            return;
+        }
+        NbtCompound data = nbt.getCompound(NBT_KEY);
+        NbtCompound vars = data.getCompound("Vars");
+        for (String name : vars.getKeys()) {
+            set(VariableIds.id(name), vars.getInt(name));
+        }
+        NbtList flagList = data.getList("Flags", NbtElement.STRING_TYPE);
+        for (int i = 0; i < flagList.size(); i++) {
+            flags.add(VariableIds.id(flagList.getString(i)));
+        }
+        seenNodes.readNbt(data.getCompound("Seen"));
+    }
+
+    /**
+     * 由玩家实体实现，用于访问附加在玩家上的变量
+     */
+    public interface Holder {
+        PlayerVariables visualnovel$getVariables();
+    }
+}
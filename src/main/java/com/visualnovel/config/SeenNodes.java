@@ -0,0 +1,111 @@
+package com.visualnovel.config;
+
+import com.visualnovel.dialogue.Dialogue;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 玩家已读过的节点：每个脚本一个位图，按节点编号（{@link Dialogue.DialogueNode#getIndex()}）置位，
+ * 与脚本的节点布局哈希一起保存；脚本增删节点后布局变化，旧的记录作废。
+ * 随玩家变量保存在玩家数据中，每个脚本只占 节点数/8 字节。
+ */
+public class SeenNodes {
+    private static final String LAYOUT_KEY = "Layout";
+    private static final String BITS_KEY = "Bits";
+
+    private final Map<String, Bits> dialogues = new HashMap<>();
+    // 客户端开启的“跳过已读”模式，不保存
+    private boolean skipping;
+
+    public boolean isSkipping() {
+        return skipping;
+    }
+
+    public void setSkipping(boolean skipping) {
+        this.skipping = skipping;
+    }
+
+    public boolean isEmpty() {
+        return dialogues.isEmpty();
+    }
+
+    /**
+     * 节点是否已读
+     */
+    public boolean contains(String dialogueId, Dialogue dialogue, Dialogue.DialogueNode node) {
+        int index = node.getIndex();
+        Bits bits = dialogues.get(dialogueId);
+        if (index < 0 || bits == null || bits.layout != dialogue.getLayoutHash()) {
+            return false;
+        }
+        int word = index >>> 6;
+        return word < bits.words.length && (bits.words[word] & (1L << index)) != 0;
+    }
+
+    /**
+     * 标记节点为已读
+     */
+    public void add(String dialogueId, Dialogue dialogue, Dialogue.DialogueNode node) {
+        int index = node.getIndex();
+        if (index < 0) {
+            return;
+        }
+        Bits bits = dialogues.get(dialogueId);
+        if (bits == null || bits.layout != dialogue.getLayoutHash()) {
+            bits = new Bits(dialogue.getLayoutHash(), new long[(dialogue.getNodes().size() + 63) >>> 6]);
+            dialogues.put(dialogueId, bits);
+        }
+        int word = index >>> 6;
+        if (word >= bits.words.length) {
+            bits.words = Arrays.copyOf(bits.words, word + 1);
+        }
+        bits.words[word] |= 1L << index;
+    }
+
+    /**
+     * 从其他实例复制（玩家重生时）
+     */
+    public void copyFrom(SeenNodes other) {
+        dialogues.clear();
+        for (Map.Entry<String, Bits> entry : other.dialogues.entrySet()) {
+            Bits bits = entry.getValue();
+            dialogues.put(entry.getKey(), new Bits(bits.layout, bits.words.clone()));
+        }
+        skipping = other.skipping;
+    }
+
+    public NbtCompound writeNbt() {
+        NbtCompound nbt = new NbtCompound();
+        for (Map.Entry<String, Bits> entry : dialogues.entrySet()) {
+            NbtCompound bits = new NbtCompound();
+            bits.putInt(LAYOUT_KEY, entry.getValue().layout);
+            bits.putLongArray(BITS_KEY, entry.getValue().words);
+            nbt.put(entry.getKey(), bits);
+        }
+        return nbt;
+    }
+
+    public void readNbt(NbtCompound nbt) {
+        dialogues.clear();
+        for (String dialogueId : nbt.getKeys()) {
+            if (nbt.contains(dialogueId, NbtElement.COMPOUND_TYPE)) {
+                NbtCompound bits = nbt.getCompound(dialogueId);
+                dialogues.put(dialogueId, new Bits(bits.getInt(LAYOUT_KEY), bits.getLongArray(BITS_KEY)));
+            }
+        }
+    }
+
+    private static final class Bits {
+        private final int layout;
+        private long[] words;
+
+        private Bits(int layout, long[] words) {
+            this.layout = layout;
+            this.words = words;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.visualnovel.config;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 进行中对话的快照，用于断线或重启后恢复
+ */
+public final class SessionSnapshot {
+    private static final int FORMAT_VERSION = 1;
+
+    private final String dialogueId;
+    private final int scriptHash;
+    private final String nodeId;
+
+    public SessionSnapshot(String dialogueId, int scriptHash, String nodeId) {
+        this.dialogueId = dialogueId;
+        this.scriptHash = scriptHash;
+        this.nodeId = nodeId;
+    }
+
+    public String getDialogueId() {
+        return dialogueId;
+    }
+
+    public int getScriptHash() {
+        return scriptHash;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(dialogueId);
+        out.writeInt(scriptHash);
+        out.writeUTF(nodeId);
+    }
+
+    /**
+     * 读取快照，格式版本不兼容时返回 null
+     */
+    public static SessionSnapshot read(DataInput in) throws IOException {
+        if (in.readUnsignedByte() != FORMAT_VERSION) {
+            return null;
+        }
+        String dialogueId = in.readUTF();
+        int scriptHash = in.readInt();
+        String nodeId = in.readUTF();
+        return new SessionSnapshot(dialogueId, scriptHash, nodeId);
+    }
+}
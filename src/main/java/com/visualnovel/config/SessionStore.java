@@ -0,0 +1,109 @@
+package com.visualnovel.config;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.WorldSavePath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话快照的存储，保存在存档目录的 visualnovel/sessions 下。
+ * 所有读写都在单独的IO线程上按提交顺序执行，不阻塞服务器主线程。
+ */
+public class SessionStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionStore.class);
+
+    private Path directory;
+    private ExecutorService executor;
+
+    /**
+     * 服务器启动时打开存档目录
+     */
+    public void open(MinecraftServer server) {
+        this.directory = server.getSavePath(WorldSavePath.ROOT).resolve("visualnovel").resolve("sessions");
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "VisualNovel Session IO");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 服务器停止时等待所有写入完成
+     */
+    public void close() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("等待对话快照写入超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    /**
+     * 异步保存玩家的对话快照
+     */
+    public void saveAsync(UUID playerUuid, SessionSnapshot snapshot) {
+        if (executor == null) {
+            return;
+        }
+        executor.execute(() -> {
+            Path file = resolve(playerUuid);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(directory);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    snapshot.write(out);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.error("保存对话快照失败: " + playerUuid, e);
+            }
+        });
+    }
+
+    /**
+     * 异步读取并移除玩家的对话快照，没有快照时结果为 null
+     */
+    public CompletableFuture<SessionSnapshot> takeAsync(UUID playerUuid) {
+        if (executor == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            Path file = resolve(playerUuid);
+            if (!Files.exists(file)) {
+                return null;
+            }
+            try {
+                SessionSnapshot snapshot;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    snapshot = SessionSnapshot.read(in);
+                }
+                Files.delete(file);
+                return snapshot;
+            } catch (IOException e) {
+                LOGGER.error("读取对话快照失败: " + playerUuid, e);
+                return null;
+            }
+        }, executor);
+    }
+
+    private Path resolve(UUID playerUuid) {
+        return directory.resolve(playerUuid + ".bin");
+    }
+}
@@ -0,0 +1,131 @@
+package com.visualnovel.config;
+
+/**
+ * 由服务器刻驱动的分层时间轮。
+ * 共4层，每层64个槽，第 n 层每个槽跨越 64^n 刻；定时器按剩余时间放入对应层的槽中，
+ * 低层转完一圈时把上一层当前槽中的定时器重新分配到下层。
+ * 添加和取消都是 O(1)，每刻只处理到期的槽，与挂起的定时器总数无关。只能在服务器线程上使用。
+ */
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    // 超出最高层范围的定时器先放在最高层，重新分配时再按剩余时间放置
+    private static final long MAX_SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private final Timer[] slots;
+    private long currentTick;
+
+    public TimingWheel() {
+        this.slots = new Timer[LEVELS * SLOTS];
+        for (int i = 0; i < slots.length; i++) {
+            Timer sentinel = new Timer(0, null);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            slots[i] = sentinel;
+        }
+    }
+
+    /**
+     * 在 delayTicks 刻后执行任务，至少延迟1刻
+     */
+    public Timer schedule(int delayTicks, Runnable task) {
+        Timer timer = new Timer(currentTick + Math.max(1, delayTicks), task);
+        insert(timer);
+        return timer;
+    }
+
+    /**
+     * 推进一刻并执行到期的定时器
+     */
+    public void advance() {
+        currentTick++;
+
+        // 从高层到低层重新分配刚转到的槽，保证到期的定时器在本刻之前落入第0层
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                Timer head = detach(level, (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                while (head != null) {
+                    Timer next = head.next;
+                    insert(head);
+                    head = next;
+                }
+            }
+        }
+
+        Timer head = detach(0, (int) currentTick & SLOT_MASK);
+        while (head != null) {
+            Timer next = head.next;
+            head.next = null;
+            // 同一批中先执行的任务可能取消了后面的定时器
+            if (!head.done) {
+                head.done = true;
+                head.task.run();
+            }
+            head = next;
+        }
+    }
+
+    private void insert(Timer timer) {
+        long remaining = timer.deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && remaining >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        long deadline = remaining >= MAX_SPAN ? currentTick + MAX_SPAN - 1 : timer.deadline;
+        Timer sentinel = slots[level * SLOTS + ((int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK)];
+        timer.prev = sentinel.prev;
+        timer.next = sentinel;
+        sentinel.prev.next = timer;
+        sentinel.prev = timer;
+    }
+
+    /**
+     * 取出一个槽中的所有定时器，返回以 next 串起、以 null 结尾的链表
+     */
+    private Timer detach(int level, int slot) {
+        Timer sentinel = slots[level * SLOTS + slot];
+        if (sentinel.next == sentinel) {
+            return null;
+        }
+        Timer head = sentinel.next;
+        sentinel.prev.next = null;
+        for (Timer timer = head; timer != null; timer = timer.next) {
+            timer.prev = null;
+        }
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        return head;
+    }
+
+    /**
+     * 定时器句柄
+     */
+    public static final class Timer {
+        private final long deadline;
+        private final Runnable task;
+        private Timer prev;
+        private Timer next;
+        private boolean done;
+
+        private Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * 取消尚未执行的定时器，已执行或已取消时无效果
+         */
+        public void cancel() {
+            done = true;
+            if (prev == null) {
+                return;
+            }
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.visualnovel.dialogue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -12,6 +14,8 @@ public class Dialogue {
     private String id;
     private String name;
     private Map<String, DialogueNode> nodes;
+    private transient int versionHash;
+    private transient int layoutHash;
 
     public Dialogue() {
         this.nodes = new HashMap<>();
@@ -41,20 +45,79 @@ public class Dialogue {
         this.nodes = nodes;
     }
 
+    /**
+     * 获取脚本内容的哈希，脚本修改后会变化
+     */
+    public int getVersionHash() {
+        return versionHash;
+    }
+
+    public void setVersionHash(int versionHash) {
+        this.versionHash = versionHash;
+    }
+
+    /**
+     * 获取节点编号布局的哈希，只在增删节点或节点改名时变化，用于判断已读记录是否仍然有效
+     */
+    public int getLayoutHash() {
+        return layoutHash;
+    }
+
+    /**
+     * 加载后压缩脚本：重复的字符串通过 {@link StringPool} 去重，长文本转为UTF-8字节数组保存；
+     * 按节点ID排序为每个节点编号
+     */
+    public void compact() {
+        id = StringPool.intern(id);
+        name = StringPool.intern(name);
+        Map<String, DialogueNode> compacted = new HashMap<>(Math.max(4, (int) (nodes.size() / 0.75f) + 1));
+        for (Map.Entry<String, DialogueNode> entry : nodes.entrySet()) {
+            DialogueNode node = entry.getValue();
+            if (node != null) {
+                node.compact();
+                compacted.put(StringPool.intern(entry.getKey()), node);
+            }
+        }
+        nodes = compacted;
+
+        List<String> ids = new ArrayList<>(nodes.keySet());
+        Collections.sort(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            nodes.get(ids.get(i)).index = i;
+        }
+        layoutHash = ids.hashCode();
+    }
+
     /**
      * 对话节点类
      */
     public static class DialogueNode {
+        // 达到该长度的文本才考虑以UTF-8字节保存，较短的文本直接进入字符串池
+        private static final int COMPACT_TEXT_LENGTH = 64;
+
         private String id;
         private String text;
+        private transient byte[] compactText;
         private String sound;
         private String nextNodeId;
         private String condition;
         private String fallbackNodeId;
         private List<Choice> choices;
+        private List<Action> actions;
+        // 无选项节点显示后自动推进的刻数，0 表示等待玩家继续
+        private int autoAdvanceTicks;
+        // 选项节点的限时刻数，超时后选择默认选项，0 表示不限时
+        private int choiceTimeout;
+        private int defaultChoice;
+        // 立绘ID列表，对应 assets/<命名空间>/portraits/ 下的图片，为空时显示实体模型
+        private List<String> portraits;
+        private transient VariableCondition variableCondition;
+        private transient RichText richText;
+        private transient int index = -1;
 
         public DialogueNode() {
             this.choices = new ArrayList<>();
+            this.actions = new ArrayList<>();
         }
 
         public String getId() {
@@ -65,12 +128,30 @@ public class Dialogue {
             this.id = id;
         }
 
+        /**
+         * 获取节点文本，压缩保存的文本在此时才解码；带标记的文本返回去掉标记后的纯文本
+         */
         public String getText() {
+            if (richText != null) {
+                return richText.toPlainString();
+            }
+            if (text == null && compactText != null) {
+                return new String(compactText, StandardCharsets.UTF_8);
+            }
             return text;
         }
 
         public void setText(String text) {
             this.text = text;
+            this.compactText = null;
+            this.richText = null;
+        }
+
+        /**
+         * 获取加载时编译的富文本，文本不含标记时为 null
+         */
+        public RichText getRichText() {
+            return richText;
         }
 
         public String getSound() {
@@ -97,6 +178,13 @@ public class Dialogue {
             this.condition = condition;
         }
 
+        /**
+         * 获取加载时编译的变量条件，条件不是变量条件时为 null
+         */
+        public VariableCondition getVariableCondition() {
+            return variableCondition;
+        }
+
         public String getFallbackNodeId() {
             return fallbackNodeId;
         }
@@ -112,6 +200,139 @@ public class Dialogue {
         public void setChoices(List<Choice> choices) {
             this.choices = choices;
         }
+
+        /**
+         * 获取节点显示时执行的动作
+         */
+        public List<Action> getActions() {
+            return actions;
+        }
+
+        public void setActions(List<Action> actions) {
+            this.actions = actions;
+        }
+
+        public int getAutoAdvanceTicks() {
+            return autoAdvanceTicks;
+        }
+
+        public void setAutoAdvanceTicks(int autoAdvanceTicks) {
+            this.autoAdvanceTicks = autoAdvanceTicks;
+        }
+
+        public int getChoiceTimeout() {
+            return choiceTimeout;
+        }
+
+        public void setChoiceTimeout(int choiceTimeout) {
+            this.choiceTimeout = choiceTimeout;
+        }
+
+        /**
+         * 获取限时结束时选择的选项序号
+         */
+        public int getDefaultChoice() {
+            return defaultChoice;
+        }
+
+        public void setDefaultChoice(int defaultChoice) {
+            this.defaultChoice = defaultChoice;
+        }
+
+        /**
+         * 获取节点在脚本中的编号（按节点ID排序的位置），脚本压缩前为 -1
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * 获取节点显示的立绘，从左到右排列
+         */
+        public List<String> getPortraits() {
+            return portraits != null ? portraits : List.of();
+        }
+
+        public void setPortraits(List<String> portraits) {
+            this.portraits = portraits;
+        }
+
+        private void compact() {
+            id = StringPool.intern(id);
+            sound = StringPool.intern(sound);
+            nextNodeId = StringPool.intern(nextNodeId);
+            condition = StringPool.intern(condition);
+            fallbackNodeId = StringPool.intern(fallbackNodeId);
+            variableCondition = VariableCondition.parse(condition);
+
+            // 带标记的文本只保留编译后的片段
+            richText = RichText.parse(text);
+            if (richText != null) {
+                text = null;
+            }
+
+            if (text != null) {
+                if (text.length() < COMPACT_TEXT_LENGTH) {
+                    text = StringPool.intern(text);
+                } else {
+                    // 字符串在堆中按Latin-1每字符1字节或UTF-16每字符2字节保存，
+                    // 只有UTF-8编码更短时（如夹杂少量中文的英文文本）才改为字节数组
+                    byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+                    if (utf8.length < heapSize(text)) {
+                        compactText = utf8;
+                        text = null;
+                    }
+                }
+            }
+
+            // JSON 数组中的 null 项（如多余的逗号）直接跳过，后面的选项序号随之前移
+            if (choices == null || choices.isEmpty()) {
+                choices = List.of();
+            } else {
+                List<Choice> compactedChoices = new ArrayList<>(choices.size());
+                for (Choice choice : choices) {
+                    if (choice != null) {
+                        choice.compact();
+                        compactedChoices.add(choice);
+                    }
+                }
+                choices = List.copyOf(compactedChoices);
+            }
+
+            if (actions == null || actions.isEmpty()) {
+                actions = List.of();
+            } else {
+                List<Action> compactedActions = new ArrayList<>(actions.size());
+                for (Action action : actions) {
+                    if (action != null) {
+                        action.compact();
+                        compactedActions.add(action);
+                    }
+                }
+                actions = List.copyOf(compactedActions);
+            }
+
+            if (portraits == null || portraits.isEmpty()) {
+                portraits = List.of();
+            } else {
+                List<String> interned = new ArrayList<>(portraits.size());
+                for (String portrait : portraits) {
+                    if (portrait != null && !portrait.isEmpty()) {
+                        interned.add(StringPool.intern(portrait));
+                    }
+                }
+                portraits = List.copyOf(interned);
+            }
+        }
+
+        private static int heapSize(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) > 0xFF) {
+                    return value.length() * 2;
+                }
+            }
+            return value.length();
+        }
     }
 
     /**
@@ -141,5 +362,110 @@ public class Dialogue {
         public void setNextNodeId(String nextNodeId) {
             this.nextNodeId = nextNodeId;
         }
+
+        private void compact() {
+            text = StringPool.intern(text);
+            nextNodeId = StringPool.intern(nextNodeId);
+        }
+    }
+
+    /**
+     * 节点动作类
+     */
+    public static class Action {
+        public static final String GIVE_ITEM = "give_item";
+        public static final String SET_FLAG = "set_flag";
+        public static final String SET_VAR = "set_var";
+        public static final String ADD_VAR = "add_var";
+        public static final String COMMAND = "command";
+        public static final String TELEPORT = "teleport";
+
+        private String type;
+        // give_item
+        private String item;
+        private int count = 1;
+        // set_flag
+        private String flag;
+        private boolean value = true;
+        // set_var / add_var
+        private String variable;
+        private int number;
+        // command
+        private String command;
+        // teleport
+        private String dimension;
+        private double x;
+        private double y;
+        private double z;
+        private transient int variableId = -1;
+
+        public String getType() {
+            return type;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public String getFlag() {
+            return flag;
+        }
+
+        public boolean getValue() {
+            return value;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * 获取 set_flag 的标记或 set_var/add_var 的变量对应的ID，未指定时为 -1
+         */
+        public int getVariableId() {
+            return variableId;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public String getDimension() {
+            return dimension;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getZ() {
+            return z;
+        }
+
+        private void compact() {
+            type = StringPool.intern(type);
+            item = StringPool.intern(item);
+            flag = StringPool.intern(flag);
+            command = StringPool.intern(command);
+            dimension = StringPool.intern(dimension);
+            variable = StringPool.intern(variable);
+            if (SET_FLAG.equals(type) && flag != null) {
+                variableId = VariableIds.id(flag);
+            } else if (variable != null) {
+                variableId = VariableIds.id(variable);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,267 @@
+package com.visualnovel.dialogue;
+
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+import net.minecraft.text.TextColor;
+import net.minecraft.util.Formatting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * 加载时编译的富文本，由若干样式相同的文本片段组成。支持以下标记：
+ * <ul>
+ *     <li>{@code [b]...[/b]} 粗体，{@code [i]...[/i]} 斜体</li>
+ *     <li>{@code [color=red]...[/color]} 颜色，可以是格式代码的颜色名或 {@code #RRGGBB}</li>
+ *     <li>{@code [speaker=名字]} 设置说话人，显示在标题位置</li>
+ *     <li>{@code [pause=刻数]} 之后的文本延迟显示</li>
+ * </ul>
+ * {@code \[} 表示字面的方括号，无法识别的标记按原样保留。
+ * 数据包中按片段序列化，客户端再组装为 {@link Text}。
+ */
+public final class RichText {
+    public static final int BOLD = 1;
+    public static final int ITALIC = 1 << 1;
+    public static final int COLOR = 1 << 2;
+    // 单个对话包中最多的片段数
+    private static final int MAX_SPANS = 1024;
+
+    private final String speaker;
+    private final List<Span> spans;
+
+    private RichText(String speaker, List<Span> spans) {
+        this.speaker = speaker;
+        this.spans = spans;
+    }
+
+    /**
+     * 不带任何样式的文本
+     */
+    public static RichText plain(String text) {
+        return new RichText(null, List.of(new Span(text != null ? text : "", 0, 0, 0)));
+    }
+
+    /**
+     * 编译标记，文本不含任何标记时返回 null
+     */
+    public static RichText parse(String source) {
+        if (source == null || source.indexOf('[') < 0) {
+            return null;
+        }
+
+        List<Span> spans = new ArrayList<>();
+        StringBuilder buffer = new StringBuilder();
+        Deque<Integer> colors = new ArrayDeque<>();
+        String speaker = null;
+        int bold = 0;
+        int italic = 0;
+        int pendingPause = 0;
+        boolean markup = false;
+
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\\' && i + 1 < source.length() && source.charAt(i + 1) == '[') {
+                buffer.append('[');
+                markup = true;
+                i += 2;
+                continue;
+            }
+            int close = c == '[' ? source.indexOf(']', i) : -1;
+            if (close < 0) {
+                buffer.append(c);
+                i++;
+                continue;
+            }
+
+            String tag = source.substring(i + 1, close);
+            int flagsBefore = flags(bold, italic, colors);
+            int colorBefore = colors.isEmpty() ? 0 : colors.peek();
+            boolean recognized = true;
+            int pause = 0;
+            if (tag.equals("b")) {
+                bold++;
+            } else if (tag.equals("/b")) {
+                bold = Math.max(0, bold - 1);
+            } else if (tag.equals("i")) {
+                italic++;
+            } else if (tag.equals("/i")) {
+                italic = Math.max(0, italic - 1);
+            } else if (tag.startsWith("color=") && parseColor(tag.substring("color=".length())) >= 0) {
+                colors.push(parseColor(tag.substring("color=".length())));
+            } else if (tag.equals("/color")) {
+                colors.poll();
+            } else if (tag.startsWith("speaker=")) {
+                speaker = StringPool.intern(tag.substring("speaker=".length()).trim());
+            } else if (tag.startsWith("pause=")) {
+                try {
+                    pause = Math.max(0, Integer.parseInt(tag.substring("pause=".length()).trim()));
+                } catch (NumberFormatException e) {
+                    recognized = false;
+                }
+            } else {
+                recognized = false;
+            }
+
+            if (!recognized) {
+                buffer.append(c);
+                i++;
+                continue;
+            }
+            markup = true;
+            if (buffer.length() > 0) {
+                spans.add(new Span(StringPool.intern(buffer.toString()), flagsBefore, colorBefore, pendingPause));
+                buffer.setLength(0);
+                pendingPause = 0;
+            }
+            pendingPause += pause;
+            i = close + 1;
+        }
+        if (!markup) {
+            return null;
+        }
+        if (buffer.length() > 0 || spans.isEmpty()) {
+            spans.add(new Span(StringPool.intern(buffer.toString()), flags(bold, italic, colors),
+                    colors.isEmpty() ? 0 : colors.peek(), pendingPause));
+        }
+        return new RichText(speaker, List.copyOf(spans));
+    }
+
+    private static int flags(int bold, int italic, Deque<Integer> colors) {
+        return (bold > 0 ? BOLD : 0) | (italic > 0 ? ITALIC : 0) | (colors.isEmpty() ? 0 : COLOR);
+    }
+
+    /**
+     * 解析颜色名或 #RRGGBB，无效时返回 -1
+     */
+    private static int parseColor(String value) {
+        if (value.startsWith("#") && value.length() == 7) {
+            try {
+                return Integer.parseInt(value.substring(1), 16);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        Formatting formatting = Formatting.byName(value);
+        return formatting != null && formatting.getColorValue() != null ? formatting.getColorValue() : -1;
+    }
+
+    /**
+     * 获取说话人，没有 [speaker] 标记时为 null
+     */
+    public String getSpeaker() {
+        return speaker;
+    }
+
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    /**
+     * 去掉标记后的纯文本
+     */
+    public String toPlainString() {
+        if (spans.size() == 1) {
+            return spans.get(0).text;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Span span : spans) {
+            builder.append(span.text);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 对每个片段的文本做替换（如变量），样式不变
+     */
+    public RichText map(UnaryOperator<String> function) {
+        List<Span> mapped = new ArrayList<>(spans.size());
+        for (Span span : spans) {
+            mapped.add(new Span(function.apply(span.text), span.flags, span.color, span.pauseTicks));
+        }
+        return new RichText(speaker, mapped);
+    }
+
+    /**
+     * 写入数据包：片段数，然后每个片段的样式、颜色、停顿和文本
+     */
+    public void write(PacketByteBuf buf) {
+        buf.writeVarInt(spans.size());
+        for (Span span : spans) {
+            buf.writeByte(span.flags);
+            if ((span.flags & COLOR) != 0) {
+                buf.writeMedium(span.color);
+            }
+            buf.writeVarInt(span.pauseTicks);
+            buf.writeString(span.text);
+        }
+    }
+
+    /**
+     * 从数据包读取片段
+     */
+    public static List<Span> read(PacketByteBuf buf) {
+        int count = buf.readVarInt();
+        if (count < 0 || count > MAX_SPANS) {
+            throw new IllegalArgumentException("对话文本片段数无效: " + count);
+        }
+        List<Span> spans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int flags = buf.readByte();
+            int color = (flags & COLOR) != 0 ? buf.readMedium() & 0xFFFFFF : 0;
+            int pauseTicks = buf.readVarInt();
+            spans.add(new Span(buf.readString(), flags, color, pauseTicks));
+        }
+        return spans;
+    }
+
+    /**
+     * 样式相同的一段文本
+     */
+    public static final class Span {
+        private final String text;
+        private final int flags;
+        private final int color;
+        private final int pauseTicks;
+
+        public Span(String text, int flags, int color, int pauseTicks) {
+            this.text = text;
+            this.flags = flags;
+            this.color = color;
+            this.pauseTicks = pauseTicks;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * 显示该片段前的停顿刻数
+         */
+        public int getPauseTicks() {
+            return pauseTicks;
+        }
+
+        /**
+         * 转换为带样式的文本组件
+         */
+        public MutableText toText() {
+            Style style = Style.EMPTY;
+            if ((flags & BOLD) != 0) {
+                style = style.withBold(true);
+            }
+            if ((flags & ITALIC) != 0) {
+                style = style.withItalic(true);
+            }
+            if ((flags & COLOR) != 0) {
+                style = style.withColor(TextColor.fromRgb(color));
+            }
+            return Text.literal(text).setStyle(style);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.visualnovel.dialogue;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * 对话脚本共享的字符串池。
+ * 节点ID、声音ID、条件和选项文本在大型脚本中大量重复，加载时统一去重；
+ * 使用弱引用，脚本卸载后不再被引用的字符串可以被回收。
+ */
+public final class StringPool {
+    private static final Interner<String> POOL = Interners.newWeakInterner();
+
+    private StringPool() {
+    }
+
+    public static String intern(String value) {
+        return value != null ? POOL.intern(value) : null;
+    }
+}
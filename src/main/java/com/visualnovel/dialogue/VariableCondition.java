@@ -0,0 +1,83 @@
+package com.visualnovel.dialogue;
+
+/**
+ * 加载时编译的变量条件，支持以下形式：
+ * <ul>
+ *     <li>{@code var:名称>=数值}，比较符为 {@code == != >= <= > <}</li>
+ *     <li>{@code has_flag:名称} 和 {@code not_flag:名称}</li>
+ * </ul>
+ */
+public final class VariableCondition {
+    private static final String[] OPERATORS = {"==", "!=", ">=", "<=", ">", "<"};
+
+    private final Operator operator;
+    private final int variableId;
+    private final int operand;
+
+    private VariableCondition(Operator operator, int variableId, int operand) {
+        this.operator = operator;
+        this.variableId = variableId;
+        this.operand = operand;
+    }
+
+    /**
+     * 编译条件，不是变量条件或格式无效时返回 null
+     */
+    public static VariableCondition parse(String condition) {
+        if (condition == null) {
+            return null;
+        }
+        if (condition.startsWith("has_flag:")) {
+            return new VariableCondition(Operator.FLAG, VariableIds.id(condition.substring("has_flag:".length())), 0);
+        }
+        if (condition.startsWith("not_flag:")) {
+            return new VariableCondition(Operator.NOT_FLAG, VariableIds.id(condition.substring("not_flag:".length())), 0);
+        }
+        if (!condition.startsWith("var:")) {
+            return null;
+        }
+
+        String expression = condition.substring("var:".length());
+        for (int i = 0; i < OPERATORS.length; i++) {
+            int index = expression.indexOf(OPERATORS[i]);
+            if (index <= 0) {
+                continue;
+            }
+            try {
+                int operand = Integer.parseInt(expression.substring(index + OPERATORS[i].length()).trim());
+                int variableId = VariableIds.id(expression.substring(0, index).trim());
+                return new VariableCondition(Operator.values()[i], variableId, operand);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public int getVariableId() {
+        return variableId;
+    }
+
+    /**
+     * 用变量的当前值判断比较条件
+     */
+    public boolean compare(int value) {
+        switch (operator) {
+            case EQ: return value == operand;
+            case NE: return value != operand;
+            case GE: return value >= operand;
+            case LE: return value <= operand;
+            case GT: return value > operand;
+            case LT: return value < operand;
+            default: return false;
+        }
+    }
+
+    public enum Operator {
+        EQ, NE, GE, LE, GT, LT, FLAG, NOT_FLAG
+    }
+}
@@ -0,0 +1,47 @@
+package com.visualnovel.dialogue;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 变量名到整数ID的映射。
+ * 脚本加载时把条件和动作中的变量名转换为ID，运行时按ID读写玩家变量，避免字符串查找和装箱。
+ * ID只在本次运行中有效，持久化时仍保存变量名。数据包脚本在重载线程上编译，因此访问需要同步。
+ */
+public final class VariableIds {
+    private static final Object2IntOpenHashMap<String> IDS = new Object2IntOpenHashMap<>();
+    private static final List<String> NAMES = new ArrayList<>();
+
+    static {
+        IDS.defaultReturnValue(-1);
+    }
+
+    private VariableIds() {
+    }
+
+    /**
+     * 获取变量名对应的ID，不存在时分配新ID
+     */
+    public static synchronized int id(String name) {
+        int id = IDS.getInt(name);
+        if (id < 0) {
+            id = NAMES.size();
+            NAMES.add(name);
+            IDS.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * 查找变量名对应的ID，不存在时返回 -1
+     */
+    public static synchronized int find(String name) {
+        return IDS.getInt(name);
+    }
+
+    public static synchronized String name(int id) {
+        return NAMES.get(id);
+    }
+}
@@ -1,20 +1,34 @@
 package com.visualnovel.event;
 
 import com.visualnovel.VisualNovel;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents;
 import net.fabricmc.fabric.api.event.player.UseEntityCallback;
-import net.minecraft.entity.passive.VillagerEntity;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.util.ActionResult;
+import net.minecraft.util.Hand;
 
 public class InteractionEvents {
     public static void register() {
         UseEntityCallback.EVENT.register((player, world, hand, entity, hitResult) -> {
-            if (entity instanceof VillagerEntity && player instanceof ServerPlayerEntity) {
-                String dialogueId = "example"; // 这里可以根据需要设置不同的对话ID
+            if (!(player instanceof ServerPlayerEntity) || player.isSpectator()) {
+                return ActionResult.PASS;
+            }
+
+            String dialogueId = VisualNovel.DIALOGUE_BINDINGS.resolve(entity);
+            // 绑定的对话不存在时不拦截原版交互（如村民交易）
+            if (dialogueId == null || !VisualNovel.DIALOGUE_MANAGER.hasDialogue(dialogueId)) {
+                return ActionResult.PASS;
+            }
+
+            // 每次点击会分别以主手和副手触发一次，只在主手时开始对话
+            if (hand == Hand.MAIN_HAND) {
                 VisualNovel.DIALOGUE_MANAGER.startDialogue((ServerPlayerEntity) player, dialogueId, entity);
-                return ActionResult.SUCCESS;
             }
-            return ActionResult.PASS;
+            return ActionResult.SUCCESS;
         });
+
+        // 实体卸载时清除绑定缓存
+        ServerEntityEvents.ENTITY_UNLOAD.register((entity, world) ->
+                VisualNovel.DIALOGUE_BINDINGS.invalidate(entity.getUuid()));
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.visualnovel.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 服务器发送对话数据包的JFR事件
+ */
+@Name("com.visualnovel.DialoguePacket")
+@Label("Dialogue Packet Send")
+@Category({"VisualNovel"})
+@Description("向客户端发送对话数据包")
+@StackTrace(false)
+public class DialoguePacketEvent extends Event {
+    @Label("Channel")
+    public String channel;
+
+    @Label("Payload Size")
+    @DataAmount
+    public int bytes;
+
+    @Label("Viewers")
+    public int viewers;
+}
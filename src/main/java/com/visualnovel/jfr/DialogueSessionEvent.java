@@ -0,0 +1,44 @@
+package com.visualnovel.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 对话会话开始、恢复和结束的JFR事件
+ */
+@Name("com.visualnovel.DialogueSession")
+@Label("Dialogue Session")
+@Category({"VisualNovel"})
+@Description("对话会话开始、恢复或结束")
+@StackTrace(false)
+public class DialogueSessionEvent extends Event {
+    public static final String START = "start";
+    public static final String RESUME = "resume";
+    public static final String END = "end";
+
+    @Label("Dialogue")
+    public String dialogue;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Members")
+    public int members;
+
+    /**
+     * 记录会话事件，未开启记录时不做任何事
+     */
+    public static void emit(String dialogue, String phase, int members) {
+        DialogueSessionEvent event = new DialogueSessionEvent();
+        if (event.shouldCommit()) {
+            event.dialogue = dialogue;
+            event.phase = phase;
+            event.members = members;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.visualnovel.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 求值单个对话节点的JFR事件，持续时间覆盖条件判断和节点显示
+ */
+@Name("com.visualnovel.NodeAdvance")
+@Label("Dialogue Node Advance")
+@Category({"VisualNovel"})
+@Description("求值一个对话节点")
+@StackTrace(false)
+public class NodeAdvanceEvent extends Event {
+    @Label("Dialogue")
+    public String dialogue;
+
+    @Label("Node")
+    public String node;
+
+    @Label("Condition Passed")
+    public boolean conditionPassed;
+
+    @Label("Condition Evaluation Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long conditionTime;
+}
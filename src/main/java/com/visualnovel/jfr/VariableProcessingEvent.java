@@ -0,0 +1,27 @@
+package com.visualnovel.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 替换节点文本中变量的JFR事件
+ */
+@Name("com.visualnovel.VariableProcessing")
+@Label("Dialogue Variable Processing")
+@Category({"VisualNovel"})
+@Description("替换对话文本中的变量")
+@StackTrace(false)
+public class VariableProcessingEvent extends Event {
+    @Label("Dialogue")
+    public String dialogue;
+
+    @Label("Node")
+    public String node;
+
+    @Label("Text Length")
+    public int textLength;
+}
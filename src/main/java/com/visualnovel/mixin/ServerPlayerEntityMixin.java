@@ -0,0 +1,31 @@
+package com.visualnovel.mixin;
+
+import com.visualnovel.config.PlayerVariables;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ServerPlayerEntity.class)
+public class ServerPlayerEntityMixin implements PlayerVariables.Holder {
+	@Unique
+	private final PlayerVariables visualnovel$variables = new PlayerVariables();
+
+	@Override
+	public PlayerVariables visualnovel$getVariables() {
+		return visualnovel$variables;
+	}
+
+	@Inject(at = @At("TAIL"), method = "writeCustomDataToNbt")
+	private void writeVariables(NbtCompound nbt, CallbackInfo info) {
+		visualnovel$variables.writeNbt(nbt);
+	}
+
+	@Inject(at = @At("TAIL"), method = "readCustomDataFromNbt")
+	private void readVariables(NbtCompound nbt, CallbackInfo info) {
+		visualnovel$variables.readNbt(nbt);
+	}
+}
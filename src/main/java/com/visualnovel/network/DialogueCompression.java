@@ -0,0 +1,149 @@
+package com.visualnovel.network;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 对话数据包的预置字典压缩，服务器和客户端共用。
+ * 字典由已加载脚本中反复出现的短语拼接而成，通过 Deflater 的预置字典功能使用。
+ */
+public final class DialogueCompression {
+    // 默认字典大小，Deflate 的窗口最多 32KB
+    public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+    // 对话内容短于该字节数时不压缩
+    public static final int MIN_COMPRESS_SIZE = 256;
+    // 解压后的最大长度，防止异常数据导致过大的内存分配
+    public static final int MAX_RAW_SIZE = 1 << 20;
+
+    public static final byte MODE_RAW = 0;
+    public static final byte MODE_COMPRESSED = 1;
+
+    private static final String PHRASE_DELIMITERS = "\n。！？，、；：…,.!?;:";
+    private static final int MIN_PHRASE_LENGTH = 2;
+    private static final int MAX_PHRASE_LENGTH = 64;
+    // 小于该长度的包用默认级别压缩，体积相差很小而耗时少得多
+    private static final int BEST_COMPRESSION_SIZE = 4096;
+    // 压缩在服务器线程上进行，每个线程复用一个 Deflater，不必为每个包分配本地压缩状态
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION));
+
+    private DialogueCompression() {
+    }
+
+    /**
+     * 从文本语料训练字典：统计按标点切分的短语，选择出现至少两次且节省字节最多的短语。
+     * 越有价值的短语放在越靠后的位置，Deflate 对近距离的匹配编码更短。
+     */
+    public static byte[] trainDictionary(Iterable<String> texts, int maxSize) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            int start = 0;
+            for (int i = 0; i <= text.length(); i++) {
+                if (i == text.length() || PHRASE_DELIMITERS.indexOf(text.charAt(i)) >= 0) {
+                    // 短语包含结尾的标点，使其和后续文本一起匹配
+                    int end = Math.min(i + 1, text.length());
+                    int length = end - start;
+                    if (length >= MIN_PHRASE_LENGTH && length <= MAX_PHRASE_LENGTH) {
+                        frequencies.merge(text.substring(start, end), 1, Integer::sum);
+                    }
+                    start = i + 1;
+                }
+            }
+        }
+
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            if (entry.getValue() >= 2) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(score(b), score(a)));
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : candidates) {
+            byte[] phrase = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + phrase.length > maxSize) {
+                continue;
+            }
+            selected.add(phrase);
+            size += phrase.length;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            out.writeBytes(selected.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    private static long score(Map.Entry<String, Integer> entry) {
+        return (long) entry.getValue() * entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * 计算字典ID
+     */
+    public static int dictionaryId(byte[] dictionary) {
+        CRC32 crc = new CRC32();
+        crc.update(dictionary);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 用字典压缩包体；每个线程复用同一个 Deflater，重置后重新设置级别和字典
+     */
+    public static byte[] compress(byte[] input, byte[] dictionary) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(input.length < BEST_COMPRESSION_SIZE ? Deflater.DEFAULT_COMPRESSION
+                : Deflater.BEST_COMPRESSION);
+        deflater.setDictionary(dictionary);
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
+        byte[] buffer = new byte[Math.max(64, input.length)];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] decompress(byte[] input, int rawLength, byte[] dictionary) throws DataFormatException {
+        if (rawLength < 0 || rawLength > MAX_RAW_SIZE) {
+            throw new DataFormatException("对话数据长度无效: " + rawLength);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] output = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength) {
+                int count = inflater.inflate(output, offset, rawLength - offset);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new DataFormatException("对话数据不完整");
+                    }
+                }
+                offset += count;
+            }
+            return output;
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.visualnovel.network;
+
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.Collection;
+
+/**
+ * 对话管理器向玩家发送内容的出口。
+ * 正常运行时为 {@link ServerNetworkHandler#TRANSPORT}，回放时替换为记录输出的实现。
+ */
+public interface DialogueTransport {
+    /**
+     * 发送编码好的对话包体（见 {@link ServerNetworkHandler#encodeDialogue}）
+     */
+    void sendDialogue(Collection<ServerPlayerEntity> viewers, PacketByteBuf body);
+
+    /**
+     * 发送编码好的一页选项（见 {@link ServerNetworkHandler#encodeChoicePage}）
+     */
+    void sendChoicePage(ServerPlayerEntity viewer, PacketByteBuf page);
+
+    /**
+     * 关闭对话UI
+     */
+    void closeDialogue(Collection<ServerPlayerEntity> viewers);
+
+    /**
+     * 播放声音
+     */
+    void playSound(Collection<ServerPlayerEntity> viewers, String soundId);
+}
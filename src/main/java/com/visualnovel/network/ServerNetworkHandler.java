@@ -1,21 +1,73 @@
 package com.visualnovel.network;
 
 import com.visualnovel.VisualNovel;
+import com.visualnovel.config.PlayerVariables;
 import com.visualnovel.dialogue.Dialogue;
+import com.visualnovel.dialogue.RichText;
+import com.visualnovel.jfr.DialoguePacketEvent;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
+import net.fabricmc.fabric.api.networking.v1.S2CPlayChannelEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.listener.ClientPlayPacketListener;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.Identifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * 服务器端网络处理器
  */
 public class ServerNetworkHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger("VisualNovel");
+    // 对话压缩，可通过 -Dvisualnovel.dialogueCompression=true 启用
+    public static final boolean COMPRESSION_ENABLED = Boolean.getBoolean("visualnovel.dialogueCompression");
+
+    private static MinecraftServer server;
+    private static byte[] dictionary;
+    private static int dictionaryId;
+    // 已收到当前字典的玩家，只对他们发送压缩的对话包
+    private static final Set<UUID> dictionaryHolders = new HashSet<>();
+    // 对话包中附带的第一页选项数，之后的页由客户端按需请求
+    public static final int CHOICE_PAGE_SIZE = 6;
+    // 单次请求最多返回的选项数
+    public static final int MAX_CHOICE_PAGE_SIZE = 32;
+    // 选项筛选文本的最大长度
+    public static final int MAX_CHOICE_FILTER_LENGTH = 64;
+
+    // 通过网络发送的传输层
+    public static final DialogueTransport TRANSPORT = new DialogueTransport() {
+        @Override
+        public void sendDialogue(Collection<ServerPlayerEntity> viewers, PacketByteBuf body) {
+            ServerNetworkHandler.sendDialogue(viewers, body);
+        }
+
+        @Override
+        public void sendChoicePage(ServerPlayerEntity viewer, PacketByteBuf page) {
+            broadcast(List.of(viewer), VisualNovel.CHOICE_PAGE_PACKET_ID, page);
+        }
+
+        @Override
+        public void closeDialogue(Collection<ServerPlayerEntity> viewers) {
+            ServerNetworkHandler.closeDialogue(viewers);
+        }
+
+        @Override
+        public void playSound(Collection<ServerPlayerEntity> viewers, String soundId) {
+            ServerNetworkHandler.playSound(viewers, soundId);
+        }
+    };
 
     /**
      * 注册网络处理器
@@ -26,6 +78,7 @@ public class ServerNetworkHandler {
                 (server, player, handler, buf, responseSender) -> {
                     int choiceIndex = buf.readInt();
                     server.execute(() -> {
+                        VisualNovel.DIALOGUE_MANAGER.getRecorder().recordInput(player, choiceIndex);
                         if (choiceIndex == -1) {
                             // 继续对话
                             VisualNovel.DIALOGUE_MANAGER.continueDialogue(player);
@@ -40,41 +93,207 @@ public class ServerNetworkHandler {
         ServerPlayNetworking.registerGlobalReceiver(VisualNovel.DIALOGUE_END_PACKET_ID,
                 (server, player, handler, buf, responseSender) -> {
                     server.execute(() -> {
+                        VisualNovel.DIALOGUE_MANAGER.getRecorder().recordEnd(player);
                         VisualNovel.DIALOGUE_MANAGER.endDialogue(player);
                     });
                 });
+
+        // 注册选项分页请求处理器
+        ServerPlayNetworking.registerGlobalReceiver(VisualNovel.CHOICE_PAGE_PACKET_ID,
+                (server, player, handler, buf, responseSender) -> {
+                    int offset = buf.readVarInt();
+                    int count = buf.readVarInt();
+                    String filter = buf.readString(MAX_CHOICE_FILTER_LENGTH);
+                    server.execute(() -> VisualNovel.DIALOGUE_MANAGER.handleChoicePage(player, offset, count, filter));
+                });
+
+        // 注册跳过已读模式处理器
+        ServerPlayNetworking.registerGlobalReceiver(VisualNovel.SKIP_READ_PACKET_ID,
+                (server, player, handler, buf, responseSender) -> {
+                    boolean skipping = buf.readBoolean();
+                    server.execute(() -> {
+                        VisualNovel.DIALOGUE_MANAGER.getRecorder().recordSkipping(player, skipping);
+                        PlayerVariables.of(player).getSeenNodes().setSkipping(skipping);
+                    });
+                });
+
+        // 玩家断开连接时保存并退出对话，避免群体对话停在已离线的队长身上
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            VisualNovel.DIALOGUE_MANAGER.handleDisconnect(handler.getPlayer());
+            dictionaryHolders.remove(handler.getPlayer().getUuid());
+        });
+
+        // 玩家登录时恢复上次未完成的对话
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) ->
+                VisualNovel.DIALOGUE_MANAGER.handleJoin(handler.getPlayer(), server));
+
+        // 客户端注册字典频道后发送当前字典
+        S2CPlayChannelEvents.REGISTER.register((handler, sender, server, channels) -> {
+            if (channels.contains(VisualNovel.DIALOGUE_DICTIONARY_PACKET_ID)) {
+                server.execute(() -> sendDictionary(handler.getPlayer()));
+            }
+        });
+
+        ServerLifecycleEvents.SERVER_STARTED.register(started -> server = started);
+        ServerLifecycleEvents.SERVER_STOPPED.register(stopped -> {
+            server = null;
+            dictionaryHolders.clear();
+        });
+    }
+
+    /**
+     * 安装新训练的字典并发送给所有在线玩家，在服务器线程上调用
+     */
+    public static void installDictionary(byte[] trained) {
+        if (!COMPRESSION_ENABLED) {
+            return;
+        }
+        byte[] installed = trained.length > 0 ? trained : null;
+        int installedId = installed != null ? DialogueCompression.dictionaryId(installed) : 0;
+        if (installedId == dictionaryId && (installed == null) == (dictionary == null)) {
+            return;
+        }
+        dictionary = installed;
+        dictionaryId = installedId;
+        dictionaryHolders.clear();
+        LOGGER.info("已安装对话压缩字典: {} 字节", installed != null ? installed.length : 0);
+
+        if (server != null) {
+            for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+                sendDictionary(player);
+            }
+        }
+    }
+
+    /**
+     * 向支持字典频道的玩家发送当前字典，之后的对话包可以对其压缩
+     */
+    private static void sendDictionary(ServerPlayerEntity player) {
+        if (dictionary == null || player.isDisconnected()
+                || !ServerPlayNetworking.canSend(player, VisualNovel.DIALOGUE_DICTIONARY_PACKET_ID)) {
+            return;
+        }
+        PacketByteBuf buf = PacketByteBufs.create();
+        buf.writeByteArray(dictionary);
+        broadcast(List.of(player), VisualNovel.DIALOGUE_DICTIONARY_PACKET_ID, buf);
+        dictionaryHolders.add(player.getUuid());
     }
 
     /**
      * 发送对话UI到客户端
      */
-    public static void sendDialogue(ServerPlayerEntity player, String text, String title,
+    public static void sendDialogue(ServerPlayerEntity player, RichText text, String title,
+            List<String> portraits, List<Dialogue.Choice> choices) {
+        sendDialogue(List.of(player), encodeDialogue(text, title, portraits, choices));
+    }
+
+    /**
+     * 编码对话包体：文本片段、标题、立绘、选项总数和第一页选项，不含模式字节
+     */
+    public static PacketByteBuf encodeDialogue(RichText text, String title, List<String> portraits,
+            List<Dialogue.Choice> choices) {
+        PacketByteBuf body = PacketByteBufs.create();
+        (text != null ? text : RichText.plain("")).write(body);
+        body.writeString(title != null ? title : "");
+        body.writeVarInt(portraits != null ? portraits.size() : 0);
+        if (portraits != null) {
+            for (String portrait : portraits) {
+                body.writeString(portrait);
+            }
+        }
+        int total = choices != null ? choices.size() : 0;
+        int count = Math.min(total, CHOICE_PAGE_SIZE);
+        body.writeVarInt(total);
+        body.writeVarInt(count);
+        for (int i = 0; i < count; i++) {
+            String choiceText = choices.get(i).getText();
+            body.writeString(choiceText != null ? choiceText : "");
+        }
+        return body;
+    }
+
+    /**
+     * 编码一页选项：请求的起始位置和筛选文本（原样返回，客户端据此丢弃过时的页）、符合筛选的选项总数，
+     * 以及本页各选项在节点中的序号和文本
+     */
+    public static PacketByteBuf encodeChoicePage(int offset, String filter, int total, int[] indices, int count,
             List<Dialogue.Choice> choices) {
+        PacketByteBuf page = PacketByteBufs.create();
+        page.writeVarInt(offset);
+        page.writeString(filter);
+        page.writeVarInt(total);
+        page.writeVarInt(count);
+        for (int i = 0; i < count; i++) {
+            String choiceText = choices.get(indices[i]).getText();
+            page.writeVarInt(indices[i]);
+            page.writeString(choiceText != null ? choiceText : "");
+        }
+        return page;
+    }
+
+    /**
+     * 发送对话UI到一组观看者，数据包只编码一次。
+     * 包体以模式字节开头：原始内容，或者用预置字典压缩的内容（只发给已收到该字典的玩家）。
+     */
+    public static void sendDialogue(Collection<ServerPlayerEntity> viewers, PacketByteBuf body) {
         try {
-            PacketByteBuf buf = PacketByteBufs.create();
-            buf.writeString(text != null ? text : "");
-            buf.writeString(title != null ? title : "");
-            buf.writeInt(choices != null ? choices.size() : 0);
-            if (choices != null) {
-                for (Dialogue.Choice choice : choices) {
-                    buf.writeString(choice.getText() != null ? choice.getText() : "");
-                    buf.writeString(choice.getNextNodeId() != null ? choice.getNextNodeId() : "");
+            byte[] compressed = null;
+            if (dictionary != null && !dictionaryHolders.isEmpty()
+                    && body.readableBytes() >= DialogueCompression.MIN_COMPRESS_SIZE) {
+                byte[] raw = new byte[body.readableBytes()];
+                body.getBytes(body.readerIndex(), raw);
+                compressed = DialogueCompression.compress(raw, dictionary);
+                // 压缩后的包体需要额外写入字典ID和原始长度
+                if (compressed.length + 8 >= raw.length) {
+                    compressed = null;
                 }
             }
-            ServerPlayNetworking.send(player, VisualNovel.DIALOGUE_PACKET_ID, buf);
+
+            if (compressed == null) {
+                broadcast(viewers, VisualNovel.DIALOGUE_PACKET_ID, rawDialogue(body));
+                return;
+            }
+
+            List<ServerPlayerEntity> rawViewers = new ArrayList<>();
+            List<ServerPlayerEntity> compressedViewers = new ArrayList<>();
+            for (ServerPlayerEntity viewer : viewers) {
+                (dictionaryHolders.contains(viewer.getUuid()) ? compressedViewers : rawViewers).add(viewer);
+            }
+            PacketByteBuf buf = PacketByteBufs.create();
+            buf.writeByte(DialogueCompression.MODE_COMPRESSED);
+            buf.writeInt(dictionaryId);
+            buf.writeVarInt(body.readableBytes());
+            buf.writeByteArray(compressed);
+            broadcast(compressedViewers, VisualNovel.DIALOGUE_PACKET_ID, buf);
+            broadcast(rawViewers, VisualNovel.DIALOGUE_PACKET_ID, rawDialogue(body));
         } catch (Exception e) {
             LOGGER.error("发送对话包时出错", e);
         }
     }
 
+    private static PacketByteBuf rawDialogue(PacketByteBuf body) {
+        PacketByteBuf buf = PacketByteBufs.create();
+        buf.writeByte(DialogueCompression.MODE_RAW);
+        buf.writeBytes(body, body.readerIndex(), body.readableBytes());
+        return buf;
+    }
+
     /**
      * 关闭对话UI
      */
     public static void closeDialogue(ServerPlayerEntity player) {
+        closeDialogue(List.of(player));
+    }
+
+    /**
+     * 关闭一组观看者的对话UI
+     */
+    public static void closeDialogue(Collection<ServerPlayerEntity> viewers) {
         try {
-            PacketByteBuf buf = PacketByteBufs.create();
-            ServerPlayNetworking.send(player, VisualNovel.DIALOGUE_END_PACKET_ID, buf);
-            LOGGER.info("发送对话结束包到玩家: " + player.getName().getString());
+            broadcast(viewers, VisualNovel.DIALOGUE_END_PACKET_ID, PacketByteBufs.create());
+            for (ServerPlayerEntity viewer : viewers) {
+                LOGGER.info("发送对话结束包到玩家: " + viewer.getName().getString());
+            }
         } catch (Exception e) {
             LOGGER.error("发送对话结束包时出错", e);
         }
@@ -84,8 +303,37 @@ public class ServerNetworkHandler {
      * 播放声音
      */
     public static void playSound(ServerPlayerEntity player, String soundId) {
+        playSound(List.of(player), soundId);
+    }
+
+    /**
+     * 为一组观看者播放声音
+     */
+    public static void playSound(Collection<ServerPlayerEntity> viewers, String soundId) {
         PacketByteBuf buf = PacketByteBufs.create();
         buf.writeString(soundId);
-        ServerPlayNetworking.send(player, VisualNovel.SOUND_PACKET_ID, buf);
+        broadcast(viewers, VisualNovel.SOUND_PACKET_ID, buf);
+    }
+
+    /**
+     * 将同一个数据包发送给所有观看者
+     */
+    private static void broadcast(Collection<ServerPlayerEntity> viewers, Identifier channel, PacketByteBuf buf) {
+        if (viewers.isEmpty()) {
+            return;
+        }
+        DialoguePacketEvent event = new DialoguePacketEvent();
+        event.begin();
+        int bytes = buf.readableBytes();
+        Packet<ClientPlayPacketListener> packet = ServerPlayNetworking.createS2CPacket(channel, buf);
+        for (ServerPlayerEntity viewer : viewers) {
+            viewer.networkHandler.sendPacket(packet);
+        }
+        if (event.shouldCommit()) {
+            event.channel = channel.toString();
+            event.bytes = bytes;
+            event.viewers = viewers.size();
+            event.commit();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,311 @@
+package com.visualnovel.replay;
+
+import com.visualnovel.config.DialogueState;
+import com.visualnovel.config.PlayerVariables;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.WorldSavePath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 对话录制器，把会话开始、玩家的选择/继续/结束/跳过已读输入和发出的对话包按时间顺序写入存档目录的
+ * visualnovel/recordings 下，供 {@link DialogueReplayer} 回放。
+ * 只记录录制开始后才开始会话的玩家；对话包只保存CRC32和长度。
+ * 事件先在服务器线程上写入内存缓冲区，攒够一块后交给单独的IO线程追加到文件。
+ */
+public class DialogueRecorder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DialogueRecorder.class);
+    // 缓冲区达到该大小时交给IO线程
+    private static final int FLUSH_BYTES = 64 * 1024;
+    private static final DateTimeFormatter FILE_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Object2IntOpenHashMap<UUID> playerIndices;
+    private MinecraftServer server;
+    private ExecutorService executor;
+    private OutputStream out;
+    private PacketByteBuf buffer;
+    private int startTick;
+    private int lastTick;
+    private long lastNanos;
+
+    public DialogueRecorder() {
+        this.playerIndices = new Object2IntOpenHashMap<>();
+        this.playerIndices.defaultReturnValue(-1);
+    }
+
+    public boolean isRecording() {
+        return executor != null;
+    }
+
+    /**
+     * 开始录制到新文件，返回文件路径
+     */
+    public Path start(MinecraftServer server) {
+        if (isRecording()) {
+            stop();
+        }
+        Path directory = recordingsDirectory(server);
+        Path file = directory.resolve(LocalDateTime.now().format(FILE_NAME) + RecordingFormat.EXTENSION);
+        this.server = server;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "VisualNovel Recording IO");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.buffer = PacketByteBufs.create();
+        this.startTick = server.getTicks();
+        this.lastTick = 0;
+        this.lastNanos = System.nanoTime();
+        playerIndices.clear();
+
+        executor.execute(() -> {
+            try {
+                Files.createDirectories(directory);
+                out = new BufferedOutputStream(Files.newOutputStream(file));
+            } catch (IOException e) {
+                LOGGER.error("无法创建对话录制文件: " + file, e);
+            }
+        });
+        buffer.writeInt(RecordingFormat.MAGIC);
+        buffer.writeVarInt(RecordingFormat.VERSION);
+        LOGGER.info("开始录制对话: {}", file);
+        return file;
+    }
+
+    /**
+     * 停止录制，等待缓冲区写完
+     */
+    public void stop() {
+        if (!isRecording()) {
+            return;
+        }
+        submit();
+        executor.execute(() -> {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOGGER.error("关闭对话录制文件失败", e);
+                }
+                out = null;
+            }
+        });
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("等待对话录制写入超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        buffer = null;
+        server = null;
+        playerIndices.clear();
+        LOGGER.info("对话录制已停止");
+    }
+
+    static Path recordingsDirectory(MinecraftServer server) {
+        return server.getSavePath(WorldSavePath.ROOT).resolve("visualnovel").resolve("recordings");
+    }
+
+    /**
+     * 会话开始（或从快照恢复），在第一个节点求值之前调用
+     */
+    public void recordStart(DialogueState state) {
+        if (!isRecording()) {
+            return;
+        }
+        // 先登记新出现的玩家，之后的事件只写序号
+        for (ServerPlayerEntity member : state.getMembers()) {
+            playerIndex(member);
+        }
+        beginEvent(RecordingFormat.START);
+        buffer.writeString(state.getDialogueId());
+        buffer.writeString(state.getCurrentNodeId());
+        buffer.writeByte(state.getMode().ordinal());
+        buffer.writeVarInt(playerIndices.getInt(state.getPlayer().getUuid()));
+        buffer.writeVarInt(state.getMembers().size());
+        for (ServerPlayerEntity member : state.getMembers()) {
+            buffer.writeVarInt(playerIndices.getInt(member.getUuid()));
+            NbtCompound variables = new NbtCompound();
+            PlayerVariables.of(member).writeNbt(variables);
+            buffer.writeNbt(variables);
+            buffer.writeBoolean(PlayerVariables.of(member).getSeenNodes().isSkipping());
+        }
+        endEvent();
+    }
+
+    /**
+     * 玩家发来的选项（-1 表示继续）
+     */
+    public void recordInput(ServerPlayerEntity player, int choiceIndex) {
+        int index = trackedIndex(player);
+        if (index < 0) {
+            return;
+        }
+        beginEvent(choiceIndex == -1 ? RecordingFormat.CONTINUE : RecordingFormat.CHOICE);
+        buffer.writeVarInt(index);
+        if (choiceIndex != -1) {
+            buffer.writeVarInt(choiceIndex);
+        }
+        endEvent();
+    }
+
+    /**
+     * 玩家关闭对话
+     */
+    public void recordEnd(ServerPlayerEntity player) {
+        int index = trackedIndex(player);
+        if (index < 0) {
+            return;
+        }
+        beginEvent(RecordingFormat.END);
+        buffer.writeVarInt(index);
+        endEvent();
+    }
+
+    /**
+     * 玩家切换跳过已读模式
+     */
+    public void recordSkipping(ServerPlayerEntity player, boolean skipping) {
+        int index = trackedIndex(player);
+        if (index < 0) {
+            return;
+        }
+        beginEvent(RecordingFormat.SKIP);
+        buffer.writeVarInt(index);
+        buffer.writeBoolean(skipping);
+        endEvent();
+    }
+
+    /**
+     * 发给一组观看者的对话包体
+     */
+    public void recordDialogue(Collection<ServerPlayerEntity> viewers, PacketByteBuf body) {
+        if (!isRecording()) {
+            return;
+        }
+        int checksum = checksum(body);
+        for (ServerPlayerEntity viewer : viewers) {
+            int index = trackedIndex(viewer);
+            if (index < 0) {
+                continue;
+            }
+            beginEvent(RecordingFormat.DIALOGUE);
+            buffer.writeVarInt(index);
+            buffer.writeInt(checksum);
+            buffer.writeVarInt(body.readableBytes());
+            endEvent();
+        }
+    }
+
+    /**
+     * 关闭一组观看者的对话UI
+     */
+    public void recordClose(Collection<ServerPlayerEntity> viewers) {
+        if (!isRecording()) {
+            return;
+        }
+        for (ServerPlayerEntity viewer : viewers) {
+            int index = trackedIndex(viewer);
+            if (index < 0) {
+                continue;
+            }
+            beginEvent(RecordingFormat.CLOSE);
+            buffer.writeVarInt(index);
+            endEvent();
+        }
+    }
+
+    /**
+     * 计算包体可读部分的CRC32，不移动读取位置
+     */
+    static int checksum(PacketByteBuf body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.nioBuffer());
+        return (int) crc.getValue();
+    }
+
+    private int trackedIndex(ServerPlayerEntity player) {
+        return isRecording() ? playerIndices.getInt(player.getUuid()) : -1;
+    }
+
+    private int playerIndex(ServerPlayerEntity player) {
+        int index = playerIndices.getInt(player.getUuid());
+        if (index < 0) {
+            index = playerIndices.size();
+            playerIndices.put(player.getUuid(), index);
+            beginEvent(RecordingFormat.PLAYER);
+            buffer.writeVarInt(index);
+            buffer.writeUuid(player.getUuid());
+            buffer.writeString(player.getGameProfile().getName());
+            endEvent();
+        }
+        return index;
+    }
+
+    private void beginEvent(int type) {
+        int tick = server.getTicks() - startTick;
+        long nanos = System.nanoTime();
+        buffer.writeByte(type);
+        buffer.writeVarInt(tick - lastTick);
+        buffer.writeVarLong(nanos - lastNanos);
+        lastTick = tick;
+        lastNanos = nanos;
+    }
+
+    private void endEvent() {
+        if (buffer.readableBytes() >= FLUSH_BYTES) {
+            submit();
+        }
+    }
+
+    /**
+     * 把缓冲区的内容交给IO线程
+     */
+    private void submit() {
+        if (buffer.readableBytes() == 0) {
+            return;
+        }
+        byte[] chunk = new byte[buffer.readableBytes()];
+        buffer.readBytes(chunk);
+        buffer.clear();
+        executor.execute(() -> {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.write(chunk);
+            } catch (IOException e) {
+                LOGGER.error("写入对话录制失败", e);
+            }
+        });
+    }
+
+    /**
+     * 录制中的玩家数，用于命令反馈
+     */
+    public int getPlayerCount() {
+        return playerIndices.size();
+    }
+}
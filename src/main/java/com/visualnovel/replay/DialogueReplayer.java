@@ -0,0 +1,332 @@
+package com.visualnovel.replay;
+
+import com.mojang.authlib.GameProfile;
+import com.visualnovel.VisualNovel;
+import com.visualnovel.config.DialogueManager;
+import com.visualnovel.config.DialogueState;
+import com.visualnovel.config.PlayerVariables;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.fabricmc.fabric.api.entity.FakePlayer;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 对话回放器，把 {@link DialogueRecorder} 录制的会话交给一个独立的 {@link DialogueManager} 重新执行。
+ * 录制中的玩家由假玩家代替（名字、会话开始时的变量、已读节点和跳过已读模式相同，物品栏为空），
+ * 输出由 {@link ReplayTransport} 与录制时逐个比较，不会发给任何客户端，也不执行命令和传送动作。
+ * 事件之间按录制的刻数推进管理器的定时器；每个服务器刻只占用一段固定的时间，长录制分多刻完成。
+ * 结束后报告输出是否一致，以及每类输入的处理耗时（回放时管理器调用的耗时，
+ * 和录制时从收到输入到同一刻发出输出的间隔）。
+ */
+public class DialogueReplayer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DialogueReplayer.class);
+    // 每个服务器刻用于回放的时间，可通过 -Dvisualnovel.replayBudgetMillis 调整
+    private static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("visualnovel.replayBudgetMillis", 20));
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+    private static final String[] INPUT_NAMES = {"开始", "选择", "继续", "结束"};
+    private static final List<DialogueReplayer> RUNNING = new ArrayList<>();
+
+    private final MinecraftServer server;
+    private final String name;
+    private final PacketByteBuf log;
+    private final ReplayTransport transport;
+    private final DialogueManager manager;
+    private final Int2ObjectOpenHashMap<ServerPlayerEntity> players;
+    private final Consumer<List<String>> onFinish;
+    // 各类输入的回放耗时和录制时的响应间隔，按 INPUT_NAMES 的顺序
+    private final LongArrayList[] replayLatency;
+    private final LongArrayList[] recordedLatency;
+    private final LongArrayList tickLatency;
+    // 录制时每个玩家最近一次输入的时间、刻和类型，用于计算录制时的响应间隔
+    private final Int2LongOpenHashMap inputNanos;
+    private final Int2IntOpenHashMap inputTicks;
+    private final Int2IntOpenHashMap inputKinds;
+    private final long startedAt;
+    private int tick;
+    private int eventTick;
+    private long eventNanos;
+    private int pendingType = -1;
+    private int events;
+    private int sessions;
+
+    private DialogueReplayer(MinecraftServer server, String name, PacketByteBuf log, Consumer<List<String>> onFinish) {
+        this.server = server;
+        this.name = name;
+        this.log = log;
+        this.onFinish = onFinish;
+        this.transport = new ReplayTransport();
+        this.manager = new DialogueManager(VisualNovel.DIALOGUE_MANAGER.getLibrary(), transport);
+        this.players = new Int2ObjectOpenHashMap<>();
+        this.replayLatency = new LongArrayList[INPUT_NAMES.length];
+        this.recordedLatency = new LongArrayList[INPUT_NAMES.length];
+        for (int i = 0; i < INPUT_NAMES.length; i++) {
+            replayLatency[i] = new LongArrayList();
+            recordedLatency[i] = new LongArrayList();
+        }
+        this.tickLatency = new LongArrayList();
+        this.inputNanos = new Int2LongOpenHashMap();
+        this.inputTicks = new Int2IntOpenHashMap();
+        this.inputKinds = new Int2IntOpenHashMap();
+        this.startedAt = System.nanoTime();
+    }
+
+    /**
+     * 读取录制文件并开始回放，结束时把报告交给 onFinish
+     */
+    public static void start(MinecraftServer server, String name, Consumer<List<String>> onFinish) throws IOException {
+        if (!NAME.matcher(name).matches()) {
+            throw new IOException("录制文件名无效: " + name);
+        }
+        String fileName = name.endsWith(RecordingFormat.EXTENSION) ? name : name + RecordingFormat.EXTENSION;
+        Path file = DialogueRecorder.recordingsDirectory(server).resolve(fileName);
+        PacketByteBuf log = new PacketByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(file)));
+        if (log.readableBytes() < 4 || log.readInt() != RecordingFormat.MAGIC) {
+            throw new IOException("不是对话录制文件: " + fileName);
+        }
+        int version = log.readVarInt();
+        if (version != RecordingFormat.VERSION) {
+            throw new IOException("不支持的录制版本: " + version);
+        }
+        RUNNING.add(new DialogueReplayer(server, fileName, log, onFinish));
+        LOGGER.info("开始回放对话录制: {}", fileName);
+    }
+
+    /**
+     * 每个服务器刻结束时推进所有回放
+     */
+    public static void tickAll(MinecraftServer server) {
+        Iterator<DialogueReplayer> iterator = RUNNING.iterator();
+        while (iterator.hasNext()) {
+            DialogueReplayer replayer = iterator.next();
+            boolean finished;
+            try {
+                finished = replayer.step();
+            } catch (RuntimeException e) {
+                LOGGER.error("回放对话录制失败: " + replayer.name, e);
+                replayer.onFinish.accept(List.of("回放 " + replayer.name + " 失败: " + e.getMessage()));
+                iterator.remove();
+                continue;
+            }
+            if (finished) {
+                iterator.remove();
+                List<String> report = replayer.finish();
+                report.forEach(LOGGER::info);
+                replayer.onFinish.accept(report);
+            }
+        }
+    }
+
+    /**
+     * 服务器停止时放弃所有回放
+     */
+    public static void cancelAll() {
+        RUNNING.clear();
+    }
+
+    /**
+     * 在本刻的时间预算内处理事件，录制文件读完时返回 true
+     */
+    private boolean step() {
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        while (true) {
+            if (pendingType < 0) {
+                if (!log.isReadable()) {
+                    return true;
+                }
+                pendingType = log.readByte();
+                eventTick += log.readVarInt();
+                eventNanos += log.readVarLong();
+            }
+            // 先推进到事件所在的刻，让定时器按录制时的顺序触发
+            while (tick < eventTick) {
+                if (System.nanoTime() >= deadline) {
+                    return false;
+                }
+                long start = System.nanoTime();
+                manager.tick(server);
+                tickLatency.add(System.nanoTime() - start);
+                tick++;
+            }
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            handle(pendingType);
+            pendingType = -1;
+            events++;
+        }
+    }
+
+    private void handle(int type) {
+        switch (type) {
+            case RecordingFormat.PLAYER: {
+                int index = log.readVarInt();
+                UUID recorded = log.readUuid();
+                String playerName = log.readString();
+                // 假玩家使用派生的UUID，避免与在线的同名玩家冲突
+                UUID uuid = UUID.nameUUIDFromBytes(("visualnovel-replay:" + recorded).getBytes(StandardCharsets.UTF_8));
+                ServerPlayerEntity player = FakePlayer.get(server.getOverworld(), new GameProfile(uuid, playerName));
+                players.put(index, player);
+                transport.register(index, player, playerName);
+                break;
+            }
+            case RecordingFormat.START: {
+                String dialogueId = log.readString();
+                String nodeId = log.readString();
+                DialogueState.GroupMode mode = DialogueState.GroupMode.values()[log.readByte()];
+                int leaderIndex = log.readVarInt();
+                int count = log.readVarInt();
+                List<ServerPlayerEntity> members = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ServerPlayerEntity member = player(log.readVarInt());
+                    NbtCompound variables = log.readNbt();
+                    PlayerVariables.of(member).readNbt(variables != null ? variables : new NbtCompound());
+                    PlayerVariables.of(member).getSeenNodes().setSkipping(log.readBoolean());
+                    member.getInventory().clear();
+                    members.add(member);
+                }
+                markInput(leaderIndex, 0);
+                long start = System.nanoTime();
+                manager.startGroupDialogue(player(leaderIndex), members, dialogueId, null, mode, nodeId);
+                replayLatency[0].add(System.nanoTime() - start);
+                sessions++;
+                break;
+            }
+            case RecordingFormat.CHOICE: {
+                int index = log.readVarInt();
+                int choiceIndex = log.readVarInt();
+                markInput(index, 1);
+                long start = System.nanoTime();
+                manager.handleChoice(player(index), choiceIndex);
+                replayLatency[1].add(System.nanoTime() - start);
+                break;
+            }
+            case RecordingFormat.CONTINUE: {
+                int index = log.readVarInt();
+                markInput(index, 2);
+                long start = System.nanoTime();
+                manager.continueDialogue(player(index));
+                replayLatency[2].add(System.nanoTime() - start);
+                break;
+            }
+            case RecordingFormat.END: {
+                int index = log.readVarInt();
+                markInput(index, 3);
+                long start = System.nanoTime();
+                manager.endDialogue(player(index));
+                replayLatency[3].add(System.nanoTime() - start);
+                break;
+            }
+            case RecordingFormat.SKIP: {
+                int index = log.readVarInt();
+                PlayerVariables.of(player(index)).getSeenNodes().setSkipping(log.readBoolean());
+                break;
+            }
+            case RecordingFormat.DIALOGUE: {
+                int index = log.readVarInt();
+                int checksum = log.readInt();
+                int length = log.readVarInt();
+                recordOutput(index);
+                transport.expect(index, ReplayTransport.dialogue(checksum, length));
+                break;
+            }
+            case RecordingFormat.CLOSE: {
+                int index = log.readVarInt();
+                recordOutput(index);
+                transport.expect(index, ReplayTransport.CLOSE);
+                break;
+            }
+            default:
+                throw new IllegalStateException("未知的录制事件类型: " + type);
+        }
+    }
+
+    private ServerPlayerEntity player(int index) {
+        ServerPlayerEntity player = players.get(index);
+        if (player == null) {
+            throw new IllegalStateException("录制中未声明的玩家序号: " + index);
+        }
+        return player;
+    }
+
+    /**
+     * 记下录制时该玩家输入的时间，之后同一刻发给该玩家的第一个输出即为录制时的响应
+     */
+    private void markInput(int index, int kind) {
+        inputNanos.put(index, eventNanos);
+        inputTicks.put(index, eventTick);
+        inputKinds.put(index, kind);
+    }
+
+    private void recordOutput(int index) {
+        if (!inputKinds.containsKey(index)) {
+            return;
+        }
+        int kind = inputKinds.remove(index);
+        int inputTick = inputTicks.remove(index);
+        long inputAt = inputNanos.remove(index);
+        if (inputTick == eventTick) {
+            recordedLatency[kind].add(eventNanos - inputAt);
+        }
+    }
+
+    /**
+     * 结束回放：关闭残留的会话，生成报告
+     */
+    private List<String> finish() {
+        transport.finish();
+        for (ServerPlayerEntity player : players.values()) {
+            manager.endDialogue(player);
+        }
+
+        List<String> report = new ArrayList<>();
+        report.add(String.format("回放 %s: %d 个事件，%d 个会话，%d 刻，用时 %.1f 秒", name, events, sessions, tick,
+                (System.nanoTime() - startedAt) / 1e9));
+        report.add(String.format("输出一致 %d 个，不一致 %d 个", transport.getMatched(), transport.getMismatched()));
+        report.addAll(transport.getSamples());
+        for (int i = 0; i < INPUT_NAMES.length; i++) {
+            if (!replayLatency[i].isEmpty()) {
+                report.add(INPUT_NAMES[i] + ": 回放 " + summarize(replayLatency[i])
+                        + (recordedLatency[i].isEmpty() ? "" : "；录制 " + summarize(recordedLatency[i])));
+            }
+        }
+        if (!tickLatency.isEmpty()) {
+            report.add("每刻: " + summarize(tickLatency));
+        }
+        return report;
+    }
+
+    /**
+     * 次数和 p50/p99/最大耗时（毫秒）
+     */
+    private static String summarize(LongArrayList samples) {
+        long[] sorted = samples.toLongArray();
+        Arrays.sort(sorted);
+        return String.format("%d 次，p50 %.3f ms，p99 %.3f ms，最大 %.3f ms", sorted.length,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,30 @@
+package com.visualnovel.replay;
+
+/**
+ * 对话录制文件的格式。
+ * 文件以魔数和版本号开头，之后是连续的事件；每个事件以类型字节开头，
+ * 接着是与上一个事件相差的服务器刻数（VarInt）和纳秒数（VarLong），然后是各类型自己的内容：
+ * <ul>
+ *     <li>PLAYER：玩家序号、UUID、名字，玩家第一次出现前写入</li>
+ *     <li>START：脚本ID、起始节点、群体模式、队长序号、成员序号及各成员开始时的变量（NBT，含已读节点）和跳过已读模式</li>
+ *     <li>CHOICE：玩家序号、选项序号；CONTINUE、END：玩家序号；SKIP：玩家序号、是否跳过已读</li>
+ *     <li>DIALOGUE：玩家序号、对话包体的CRC32和长度；CLOSE：玩家序号</li>
+ * </ul>
+ */
+final class RecordingFormat {
+    static final int MAGIC = 0x564E5231; // "VNR1"
+    static final int VERSION = 2;
+    static final String EXTENSION = ".vnr";
+
+    static final int PLAYER = 0;
+    static final int START = 1;
+    static final int CHOICE = 2;
+    static final int CONTINUE = 3;
+    static final int END = 4;
+    static final int DIALOGUE = 5;
+    static final int CLOSE = 6;
+    static final int SKIP = 7;
+
+    private RecordingFormat() {
+    }
+}
@@ -0,0 +1,159 @@
+package com.visualnovel.replay;
+
+import com.visualnovel.network.DialogueTransport;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 回放使用的传输层：不发送任何数据包，只把每个玩家收到的输出与录制时的输出按顺序比较。
+ * 输出记为一个 long：对话包为 (长度 &lt;&lt; 32 | CRC32)，关闭为 {@link #CLOSE}。
+ */
+final class ReplayTransport implements DialogueTransport {
+    static final long CLOSE = -1L;
+    private static final int MAX_SAMPLES = 10;
+
+    private final Object2IntOpenHashMap<UUID> indices;
+    private final Int2ObjectOpenHashMap<Channel> channels;
+    private final List<String> samples;
+    private boolean capturing = true;
+    private long matched;
+    private long mismatched;
+
+    ReplayTransport() {
+        this.indices = new Object2IntOpenHashMap<>();
+        this.indices.defaultReturnValue(-1);
+        this.channels = new Int2ObjectOpenHashMap<>();
+        this.samples = new ArrayList<>();
+    }
+
+    static long dialogue(int checksum, int length) {
+        return (long) length << 32 | (checksum & 0xFFFFFFFFL);
+    }
+
+    void register(int index, ServerPlayerEntity player, String name) {
+        indices.put(player.getUuid(), index);
+        channels.put(index, new Channel(name));
+    }
+
+    /**
+     * 录制文件中的下一个输出
+     */
+    void expect(int index, long output) {
+        Channel channel = channels.get(index);
+        if (channel != null) {
+            channel.expected.enqueue(output);
+            match(channel);
+        }
+    }
+
+    @Override
+    public void sendDialogue(Collection<ServerPlayerEntity> viewers, PacketByteBuf body) {
+        if (capturing) {
+            long output = dialogue(DialogueRecorder.checksum(body), body.readableBytes());
+            for (ServerPlayerEntity viewer : viewers) {
+                actual(viewer, output);
+            }
+        }
+    }
+
+    @Override
+    public void sendChoicePage(ServerPlayerEntity viewer, PacketByteBuf page) {
+    }
+
+    @Override
+    public void closeDialogue(Collection<ServerPlayerEntity> viewers) {
+        if (capturing) {
+            for (ServerPlayerEntity viewer : viewers) {
+                actual(viewer, CLOSE);
+            }
+        }
+    }
+
+    @Override
+    public void playSound(Collection<ServerPlayerEntity> viewers, String soundId) {
+    }
+
+    private void actual(ServerPlayerEntity viewer, long output) {
+        Channel channel = channels.get(indices.getInt(viewer.getUuid()));
+        if (channel != null) {
+            channel.actual.enqueue(output);
+            match(channel);
+        }
+    }
+
+    private void match(Channel channel) {
+        while (!channel.expected.isEmpty() && !channel.actual.isEmpty()) {
+            long expected = channel.expected.dequeueLong();
+            long actual = channel.actual.dequeueLong();
+            channel.position++;
+            if (expected == actual) {
+                matched++;
+            } else {
+                mismatch(channel, describe(expected), describe(actual));
+            }
+        }
+    }
+
+    /**
+     * 停止比较，两边剩余的输出都计为不一致
+     */
+    void finish() {
+        capturing = false;
+        for (Channel channel : channels.values()) {
+            while (!channel.expected.isEmpty()) {
+                channel.position++;
+                mismatch(channel, describe(channel.expected.dequeueLong()), "无");
+            }
+            while (!channel.actual.isEmpty()) {
+                channel.position++;
+                mismatch(channel, "无", describe(channel.actual.dequeueLong()));
+            }
+        }
+    }
+
+    private void mismatch(Channel channel, String expected, String actual) {
+        mismatched++;
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add(String.format("%s 的第 %d 个输出: 录制 %s，回放 %s", channel.name, channel.position,
+                    expected, actual));
+        }
+    }
+
+    private static String describe(long output) {
+        if (output == CLOSE) {
+            return "关闭";
+        }
+        return String.format("对话(%d 字节, CRC %08x)", output >>> 32, output & 0xFFFFFFFFL);
+    }
+
+    long getMatched() {
+        return matched;
+    }
+
+    long getMismatched() {
+        return mismatched;
+    }
+
+    List<String> getSamples() {
+        return samples;
+    }
+
+    private static final class Channel {
+        private final String name;
+        private final LongArrayFIFOQueue expected = new LongArrayFIFOQueue();
+        private final LongArrayFIFOQueue actual = new LongArrayFIFOQueue();
+        private int position;
+
+        private Channel(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.visualnovel.trigger;
+
+import com.visualnovel.VisualNovel;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 区域触发器，玩家移动到新方块时检查是否进入了触发区域
+ */
+public class ProximityTriggers {
+    private static final Map<UUID, PlayerTracker> TRACKERS = new HashMap<>();
+
+    public static void register() {
+        ServerTickEvents.END_SERVER_TICK.register(ProximityTriggers::tick);
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) ->
+                server.execute(() -> TRACKERS.remove(handler.getPlayer().getUuid())));
+    }
+
+    private static void tick(MinecraftServer server) {
+        TriggerIndex index = VisualNovel.TRIGGER_INDEX;
+        if (index.isEmpty()) {
+            return;
+        }
+
+        long now = server.getTicks();
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            PlayerTracker tracker = TRACKERS.computeIfAbsent(player.getUuid(), uuid -> new PlayerTracker());
+            long blockPos = player.getBlockPos().asLong();
+            World world = player.getWorld();
+            if (blockPos == tracker.lastBlockPos && world == tracker.lastWorld) {
+                continue;
+            }
+            tracker.lastBlockPos = blockPos;
+            tracker.lastWorld = world;
+
+            Identifier dimension = world.getRegistryKey().getValue();
+            TriggerZone[] candidates = index.candidates(dimension,
+                    player.getBlockX(), player.getBlockY(), player.getBlockZ());
+            tracker.update(player, candidates, index.largeCandidates(dimension), now);
+        }
+    }
+
+    /**
+     * 每个玩家的位置、所在区域和冷却状态
+     */
+    private static final class PlayerTracker {
+        private long lastBlockPos = Long.MIN_VALUE;
+        private World lastWorld;
+        private List<TriggerZone> inside = new ArrayList<>(2);
+        private List<TriggerZone> scratch = new ArrayList<>(2);
+        private final Object2LongOpenHashMap<String> cooldowns = new Object2LongOpenHashMap<>();
+
+        private void update(ServerPlayerEntity player, TriggerZone[] candidates, TriggerZone[] large, long now) {
+            scratch.clear();
+            boolean started = visit(player, candidates, now, false);
+            visit(player, large, now, started);
+
+            List<TriggerZone> previous = inside;
+            inside = scratch;
+            scratch = previous;
+        }
+
+        /**
+         * 检查一组候选区域，记录玩家所在的区域，返回是否已经开始对话
+         */
+        private boolean visit(ServerPlayerEntity player, TriggerZone[] candidates, long now, boolean started) {
+            for (TriggerZone zone : candidates) {
+                if (!zone.contains(player.getBlockX(), player.getBlockY(), player.getBlockZ())) {
+                    continue;
+                }
+                scratch.add(zone);
+
+                // 只在进入区域的那一刻触发
+                if (started || inside.contains(zone) || cooldowns.getLong(zone.getId()) > now) {
+                    continue;
+                }
+                if (VisualNovel.DIALOGUE_MANAGER.getPlayerDialogueState(player.getUuid()) != null) {
+                    continue;
+                }
+                cooldowns.put(zone.getId(), now + zone.getCooldownTicks());
+                VisualNovel.DIALOGUE_MANAGER.startDialogue(player, zone.getDialogue(), null);
+                started = true;
+            }
+            return started;
+        }
+    }
+}
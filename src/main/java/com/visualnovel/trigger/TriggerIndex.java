@@ -0,0 +1,148 @@
+package com.visualnovel.trigger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.ChunkSectionPos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 触发区域的空间索引，按维度和区块段（16x16x16）分桶
+ */
+public class TriggerIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TriggerIndex.class);
+    private static final Path TRIGGERS_PATH = Paths.get("config", "visualnovel-triggers.json");
+    private static final TriggerZone[] EMPTY = new TriggerZone[0];
+    // 单个区域最多放入的区块段数，更大的区域放入维度的大区域列表，每次都检查
+    private static final int MAX_SECTIONS_PER_ZONE = 512;
+
+    private final Gson gson;
+    private Map<Identifier, Long2ObjectMap<TriggerZone[]>> buckets;
+    private Map<Identifier, TriggerZone[]> largeZones;
+    private int zoneCount;
+
+    public TriggerIndex() {
+        this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.buckets = Collections.emptyMap();
+        this.largeZones = Collections.emptyMap();
+    }
+
+    /**
+     * 从配置文件加载触发区域并重建索引
+     */
+    public void load() {
+        TriggerConfig config;
+        try {
+            if (!Files.exists(TRIGGERS_PATH)) {
+                config = new TriggerConfig();
+                Files.createDirectories(TRIGGERS_PATH.getParent());
+                Files.writeString(TRIGGERS_PATH, gson.toJson(config));
+                LOGGER.info("已创建触发区域文件: " + TRIGGERS_PATH);
+            } else {
+                try (BufferedReader reader = Files.newBufferedReader(TRIGGERS_PATH)) {
+                    config = gson.fromJson(reader, TriggerConfig.class);
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            LOGGER.error("加载触发区域失败: " + TRIGGERS_PATH, e);
+            return;
+        }
+        rebuild(config != null ? config.zones : Collections.emptyList());
+    }
+
+    private void rebuild(List<TriggerZone> zones) {
+        Map<Identifier, Map<Long, List<TriggerZone>>> building = new HashMap<>();
+        Map<Identifier, List<TriggerZone>> buildingLarge = new HashMap<>();
+        int count = 0;
+
+        for (TriggerZone zone : zones) {
+            Identifier dimension = zone.bake() ? Identifier.tryParse(zone.getDimension()) : null;
+            if (dimension == null) {
+                LOGGER.warn("无效的触发区域: " + zone.getId());
+                continue;
+            }
+
+            int minX = ChunkSectionPos.getSectionCoord(zone.getMinX());
+            int minY = ChunkSectionPos.getSectionCoord(zone.getMinY());
+            int minZ = ChunkSectionPos.getSectionCoord(zone.getMinZ());
+            int maxX = ChunkSectionPos.getSectionCoord(zone.getMaxX());
+            int maxY = ChunkSectionPos.getSectionCoord(zone.getMaxY());
+            int maxZ = ChunkSectionPos.getSectionCoord(zone.getMaxZ());
+            long sectionCount = (maxX - minX + 1L) * (maxY - minY + 1L) * (maxZ - minZ + 1L);
+            count++;
+            if (sectionCount > MAX_SECTIONS_PER_ZONE) {
+                buildingLarge.computeIfAbsent(dimension, k -> new ArrayList<>(2)).add(zone);
+                continue;
+            }
+
+            Map<Long, List<TriggerZone>> sections = building.computeIfAbsent(dimension, k -> new HashMap<>());
+            for (int sx = minX; sx <= maxX; sx++) {
+                for (int sy = minY; sy <= maxY; sy++) {
+                    for (int sz = minZ; sz <= maxZ; sz++) {
+                        sections.computeIfAbsent(ChunkSectionPos.asLong(sx, sy, sz), k -> new ArrayList<>(2)).add(zone);
+                    }
+                }
+            }
+        }
+
+        // 转换为紧凑的数组桶，查询时无需装箱
+        Map<Identifier, Long2ObjectMap<TriggerZone[]>> baked = new HashMap<>();
+        building.forEach((dimension, sections) -> {
+            Long2ObjectOpenHashMap<TriggerZone[]> map = new Long2ObjectOpenHashMap<>(sections.size());
+            sections.forEach((key, list) -> map.put(key.longValue(), list.toArray(EMPTY)));
+            map.trim();
+            baked.put(dimension, map);
+        });
+
+        Map<Identifier, TriggerZone[]> large = new HashMap<>();
+        buildingLarge.forEach((dimension, list) -> large.put(dimension, list.toArray(EMPTY)));
+
+        this.buckets = baked;
+        this.largeZones = large;
+        this.zoneCount = count;
+        LOGGER.info("已加载 {} 个触发区域", count);
+    }
+
+    /**
+     * 获取包含指定方块的区块段中的候选区域，调用方仍需检查 {@link TriggerZone#contains}
+     */
+    public TriggerZone[] candidates(Identifier dimension, int x, int y, int z) {
+        Long2ObjectMap<TriggerZone[]> sections = buckets.get(dimension);
+        if (sections == null) {
+            return EMPTY;
+        }
+        TriggerZone[] zones = sections.get(ChunkSectionPos.asLong(
+                ChunkSectionPos.getSectionCoord(x), ChunkSectionPos.getSectionCoord(y), ChunkSectionPos.getSectionCoord(z)));
+        return zones != null ? zones : EMPTY;
+    }
+
+    /**
+     * 获取维度中跨越区块段过多、未放入分桶的大区域，调用方仍需检查 {@link TriggerZone#contains}
+     */
+    public TriggerZone[] largeCandidates(Identifier dimension) {
+        TriggerZone[] zones = largeZones.get(dimension);
+        return zones != null ? zones : EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return zoneCount == 0;
+    }
+
+    /**
+     * 触发区域配置文件结构
+     */
+    private static class TriggerConfig {
+        private List<TriggerZone> zones = new ArrayList<>();
+    }
+}
@@ -0,0 +1,81 @@
+package com.visualnovel.trigger;
+
+/**
+ * 触发区域，玩家进入区域时开始对话
+ */
+public class TriggerZone {
+    private String id;
+    private String dialogue;
+    private String dimension = "minecraft:overworld";
+    private int[] from;
+    private int[] to;
+    private int cooldownTicks = 200;
+
+    private transient int minX;
+    private transient int minY;
+    private transient int minZ;
+    private transient int maxX;
+    private transient int maxY;
+    private transient int maxZ;
+
+    /**
+     * 校验配置并计算包围盒，配置无效时返回 false
+     */
+    boolean bake() {
+        if (id == null || dialogue == null || dimension == null
+                || from == null || from.length != 3 || to == null || to.length != 3) {
+            return false;
+        }
+        minX = Math.min(from[0], to[0]);
+        minY = Math.min(from[1], to[1]);
+        minZ = Math.min(from[2], to[2]);
+        maxX = Math.max(from[0], to[0]);
+        maxY = Math.max(from[1], to[1]);
+        maxZ = Math.max(from[2], to[2]);
+        return true;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDialogue() {
+        return dialogue;
+    }
+
+    public String getDimension() {
+        return dimension;
+    }
+
+    public int getCooldownTicks() {
+        return cooldownTicks;
+    }
+
+    int getMinX() {
+        return minX;
+    }
+
+    int getMinY() {
+        return minY;
+    }
+
+    int getMinZ() {
+        return minZ;
+    }
+
+    int getMaxX() {
+        return maxX;
+    }
+
+    int getMaxY() {
+        return maxY;
+    }
+
+    int getMaxZ() {
+        return maxZ;
+    }
+}